@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import java.util.List;
+
+/**
+ * Receives the attendees page by page while the next ones are still being
+ * retrieved.
+ */
+public interface AttendeeListener {
+
+  /**
+   * Called with every page of attendees, in order, from the retrieving thread.
+   *
+   * @param attendees The attendees of the page.
+   * @param last True if this is the last page.
+   */
+  public void onAttendees(List<Attendee> attendees, boolean last);
+
+}
@@ -32,6 +32,14 @@ public interface AttendeeRetriever {
    */
   public List<Attendee> getPossibleAttendees();
 
+  /**
+   * Retrieves the attendees selectable page by page, so the first ones can be
+   * shown while the others are being retrieved.
+   *
+   * @param listener The listener receiving the pages of attendees
+   */
+  public void getPossibleAttendees(AttendeeListener listener);
+
   /**
    * Returns the current user of the phone as an attendee.
    *
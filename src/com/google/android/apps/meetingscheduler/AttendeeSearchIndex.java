@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Search index of the attendees by the prefixes of the words of their names
+ * and of the local parts of their emails, lower-cased and without accents.
+ *
+ * Every attendee gets an ID in the order they are added, and every word maps
+ * to the sorted list of IDs of the attendees having it. A query matches the
+ * attendees having a word starting with each of its words. The results of the
+ * latest queries are cached: a query typed after one of them only filters its
+ * results, and going back to one of them, e.g with backspace, is a lookup.
+ */
+public class AttendeeSearchIndex {
+
+  /** Number of queries whose results are cached. */
+  private static final int MAX_CACHED_QUERIES = 32;
+
+  /** Letters without accents of the characters from U+00C0 to U+017F. */
+  private static final String FOLDED_LATIN = "aaaaaaaceeeeiiiidnooooo\u00d7ouuuuyts"
+      + "aaaaaaaceeeeiiiidnooooo\u00f7ouuuuyty"
+      + "aaaaaaccccccccddddeeeeeeeeeegggggggghhhhiiiiiiiiiiiijjkkkllllllllll"
+      + "nnnnnnnnnoooooooorrrrrrssssssssttttttuuuuuuuuuuuuwwyyyzzzzzzs";
+
+  /** The attendees, by ID. */
+  private final List<Attendee> attendees = new ArrayList<Attendee>();
+
+  /** The words of the attendees, by ID. */
+  private final List<String[]> attendeeWords = new ArrayList<String[]>();
+
+  /** The IDs of the attendees. */
+  private final Map<Attendee, Integer> ids = new IdentityHashMap<Attendee, Integer>();
+
+  /** The IDs of the attendees having every word, sorted by word. */
+  private final TreeMap<String, Postings> postings = new TreeMap<String, Postings>();
+
+  /** The position of the attendees in the list last updated from, by ID. */
+  private int[] ranks = new int[0];
+
+  /** The results of the latest queries, mapped by normalized query. */
+  private final Map<String, int[]> cache = new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+      return size() > MAX_CACHED_QUERIES;
+    }
+  };
+
+  /**
+   * Index the attendees of a list not indexed yet and remember their position
+   * in the list. The index is built again if attendees have been removed.
+   *
+   * @param sortedAttendees The attendees, in the order in which to show them.
+   */
+  public synchronized void update(List<Attendee> sortedAttendees) {
+    if (sortedAttendees.size() < attendees.size() || !index(sortedAttendees)) {
+      clear();
+      index(sortedAttendees);
+    }
+  }
+
+  /**
+   * @param query The words typed, in any case and with or without accents.
+   * @return The sorted IDs of the attendees matching the query, or null if
+   *         the query has no words and matches every attendee.
+   */
+  public synchronized int[] search(CharSequence query) {
+    String normalized = normalize(query);
+
+    if (normalized.length() == 0)
+      return null;
+
+    int[] result = cache.get(normalized);
+
+    if (result != null)
+      return result;
+
+    String[] words = normalized.split(" ");
+    int[] candidates = null;
+
+    // Refine the results of the longest cached query this one extends.
+    for (int end = normalized.length() - 1; end > 0 && candidates == null; --end) {
+      candidates = cache.get(normalized.substring(0, end));
+    }
+    if (candidates == null)
+      candidates = lookup(getLongest(words));
+
+    result = filter(candidates, words);
+    cache.put(normalized, result);
+    return result;
+  }
+
+  /**
+   * @param id The ID of an attendee.
+   * @return The attendee.
+   */
+  public synchronized Attendee getAttendee(int id) {
+    return attendees.get(id);
+  }
+
+  /**
+   * @param id The ID of an attendee.
+   * @return The position of the attendee in the list last updated from.
+   */
+  public synchronized int getRank(int id) {
+    return ranks[id];
+  }
+
+  /**
+   * @return The number of attendees indexed.
+   */
+  public synchronized int size() {
+    return attendees.size();
+  }
+
+  /**
+   * Index an attendee.
+   *
+   * @return The ID of the attendee.
+   */
+  private int add(Attendee attendee) {
+    int id = attendees.size();
+    String[] words = getWords(attendee);
+
+    attendees.add(attendee);
+    attendeeWords.add(words);
+    ids.put(attendee, id);
+    for (String word : words) {
+      Postings wordPostings = postings.get(word);
+
+      if (wordPostings == null) {
+        wordPostings = new Postings();
+        postings.put(word, wordPostings);
+      }
+      wordPostings.add(id);
+    }
+    // The new attendee may match the cached queries.
+    cache.clear();
+    return id;
+  }
+
+  /**
+   * Index the attendees not indexed yet and set the ranks of the attendees.
+   *
+   * @return False if attendees not in the list are indexed.
+   */
+  private boolean index(List<Attendee> sortedAttendees) {
+    if (ranks.length != sortedAttendees.size())
+      ranks = new int[sortedAttendees.size()];
+
+    for (int rank = 0; rank < sortedAttendees.size(); ++rank) {
+      Attendee attendee = sortedAttendees.get(rank);
+      Integer id = ids.get(attendee);
+
+      if (id == null)
+        id = add(attendee);
+      if (id >= ranks.length)
+        return false;
+      ranks[id] = rank;
+    }
+    return attendees.size() == sortedAttendees.size();
+  }
+
+  private void clear() {
+    attendees.clear();
+    attendeeWords.clear();
+    ids.clear();
+    postings.clear();
+    cache.clear();
+  }
+
+  /**
+   * @return The sorted IDs of the attendees having a word starting with
+   *         {@code prefix}.
+   */
+  private int[] lookup(String prefix) {
+    SortedMap<String, Postings> words = postings.subMap(prefix, prefix + Character.MAX_VALUE);
+    boolean[] matches = new boolean[attendees.size()];
+    int count = 0;
+
+    for (Postings wordPostings : words.values()) {
+      for (int i = 0; i < wordPostings.size; ++i) {
+        if (!matches[wordPostings.ids[i]]) {
+          matches[wordPostings.ids[i]] = true;
+          ++count;
+        }
+      }
+    }
+
+    int[] result = new int[count];
+
+    for (int id = 0, i = 0; i < count; ++id) {
+      if (matches[id])
+        result[i++] = id;
+    }
+    return result;
+  }
+
+  /**
+   * @return The IDs of the candidates having a word starting with each of the
+   *         query words, in the same order.
+   */
+  private int[] filter(int[] candidates, String[] queryWords) {
+    int[] result = new int[candidates.length];
+    int count = 0;
+
+    for (int id : candidates) {
+      if (matches(attendeeWords.get(id), queryWords))
+        result[count++] = id;
+    }
+    if (count == result.length)
+      return result;
+
+    int[] trimmed = new int[count];
+
+    System.arraycopy(result, 0, trimmed, 0, count);
+    return trimmed;
+  }
+
+  private static boolean matches(String[] words, String[] queryWords) {
+    for (String queryWord : queryWords) {
+      boolean found = false;
+
+      for (int i = 0; i < words.length && !found; ++i) {
+        found = words[i].startsWith(queryWord);
+      }
+      if (!found)
+        return false;
+    }
+    return true;
+  }
+
+  private static String getLongest(String[] words) {
+    String result = words[0];
+
+    for (String word : words) {
+      if (word.length() > result.length())
+        result = word;
+    }
+    return result;
+  }
+
+  /**
+   * @return The words of the name of the attendee, without the email shown
+   *         after it, and of the local part of their email.
+   */
+  private static String[] getWords(Attendee attendee) {
+    String name = attendee.name != null ? attendee.name : "";
+    String email = attendee.email != null ? attendee.email : "";
+    int at = email.indexOf('@');
+
+    if (email.length() > 0 && name.endsWith("(" + email + ")"))
+      name = name.substring(0, name.length() - email.length() - 2);
+    if (at >= 0)
+      email = email.substring(0, at);
+
+    String normalized = normalize(name + " " + email);
+
+    return normalized.length() > 0 ? normalized.split(" ") : new String[0];
+  }
+
+  /**
+   * @return The words of the text lower-cased and without accents, separated
+   *         by a single space. The text ends with a space if it ends with a
+   *         separator, so that extending a query extends its normalized form.
+   */
+  private static String normalize(CharSequence text) {
+    StringBuilder result = new StringBuilder(text.length());
+
+    for (int i = 0; i < text.length(); ++i) {
+      char c = text.charAt(i);
+
+      if (Character.isLetterOrDigit(c)) {
+        result.append(fold(Character.toLowerCase(c)));
+      } else if (result.length() > 0 && result.charAt(result.length() - 1) != ' ') {
+        result.append(' ');
+      }
+    }
+    return result.toString();
+  }
+
+  private static char fold(char c) {
+    if (c >= '\u00c0' && c < '\u00c0' + FOLDED_LATIN.length())
+      return FOLDED_LATIN.charAt(c - '\u00c0');
+    return c;
+  }
+
+  /**
+   * Growable sorted list of attendee IDs.
+   */
+  private static class Postings {
+
+    private int[] ids = new int[2];
+    private int size;
+
+    public void add(int id) {
+      if (size == ids.length) {
+        int[] newIds = new int[size * 2];
+
+        System.arraycopy(ids, 0, newIds, 0, size);
+        ids = newIds;
+      }
+      ids[size++] = id;
+    }
+
+  }
+
+}
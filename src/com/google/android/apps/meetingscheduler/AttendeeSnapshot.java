@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * On-disk snapshot of the contacts resolved as attendees for an account, so
+ * the attendees can be shown on start without reading the contacts provider.
+ * Every contact is stored with the version of its raw contacts, including the
+ * ones without an email, so only the contacts whose version changed have to
+ * be resolved again.
+ */
+public class AttendeeSnapshot {
+
+  private static final int MAGIC = 0x41545350;
+  private static final int VERSION = 1;
+
+  /**
+   * A contact resolved as an attendee.
+   */
+  public static class Entry {
+
+    /** The ID of the contact. */
+    public final long contactId;
+
+    /** The version of the raw contacts of the contact. */
+    public final long version;
+
+    /** The display name of the contact. */
+    public final String name;
+
+    /** The email chosen for the contact, null if the contact has none. */
+    public final String email;
+
+    /** The ID of the photo of the contact, 0 if none. */
+    public final long photoId;
+
+    public Entry(long contactId, long version, String name, String email, long photoId) {
+      this.contactId = contactId;
+      this.version = version;
+      this.name = name;
+      this.email = email;
+      this.photoId = photoId;
+    }
+
+  }
+
+  /** The snapshot file. */
+  private final File file;
+
+  /** The account whose contacts are stored. */
+  private final String accountName;
+
+  /**
+   * Constructor.
+   *
+   * @param context The application context.
+   * @param account The account whose contacts are stored.
+   */
+  public AttendeeSnapshot(Context context, Account account) {
+    this.file = new File(context.getFilesDir(), "attendees_"
+        + Integer.toHexString(account.name.hashCode()) + ".bin");
+    this.accountName = account.name;
+  }
+
+  /**
+   * @return The contacts of the snapshot, or null if there is no snapshot for
+   *         the account.
+   */
+  public List<Entry> read() {
+    DataInputStream input;
+
+    try {
+      input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+
+    try {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION
+          || !input.readUTF().equals(accountName))
+        return null;
+
+      int count = input.readInt();
+      List<Entry> result = new ArrayList<Entry>(count);
+
+      for (int i = 0; i < count; ++i) {
+        long contactId = input.readLong();
+        long version = input.readLong();
+        String name = input.readUTF();
+        String email = input.readUTF();
+
+        result.add(new Entry(contactId, version, name, email.length() > 0 ? email : null, input
+            .readLong()));
+      }
+      return result;
+    } catch (IOException e) {
+      Log.e(MeetingSchedulerConstants.TAG, "Couldn't read the attendee snapshot: "
+          + e.getMessage());
+      return null;
+    } finally {
+      try {
+        input.close();
+      } catch (IOException e) {
+        // Nothing was written.
+      }
+    }
+  }
+
+  /**
+   * Replace the snapshot.
+   *
+   * @param entries The contacts to store.
+   */
+  public void write(Collection<Entry> entries) {
+    File tempFile = new File(file.getPath() + ".tmp");
+
+    try {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(tempFile)));
+
+      try {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeUTF(accountName);
+        output.writeInt(entries.size());
+        for (Entry entry : entries) {
+          output.writeLong(entry.contactId);
+          output.writeLong(entry.version);
+          output.writeUTF(entry.name != null ? entry.name : "");
+          output.writeUTF(entry.email != null ? entry.email : "");
+          output.writeLong(entry.photoId);
+        }
+      } finally {
+        output.close();
+      }
+      if (!tempFile.renameTo(file))
+        throw new IOException("Couldn't replace " + file);
+    } catch (IOException e) {
+      Log.e(MeetingSchedulerConstants.TAG, "Couldn't write the attendee snapshot: "
+          + e.getMessage());
+      tempFile.delete();
+    }
+  }
+
+}
@@ -117,6 +117,41 @@ public class AuthManager {
     }, null /* handler */);
   }
 
+  /**
+   * Fetches the auth token of the account without asking the user anything,
+   * so that work can start in the background before the user asks for it. The
+   * {@link Runnable} provided is only executed if the auth token could be
+   * fetched silently.
+   * 
+   * @param runnable A {@link Runnable} to execute when the auth token has been
+   *          successfully fetched and is available via {@link #getAuthToken()}
+   * @param account The account for which to fetch the auth token
+   */
+  public void doSilentLogin(final Runnable runnable, Account account) {
+    accountManager.getAuthToken(account, service, false, new AccountManagerCallback<Bundle>() {
+      public void run(AccountManagerFuture<Bundle> future) {
+        try {
+          Bundle result = future.getResult();
+
+          // The user needs to grant permission, leave that to doLogin.
+          if (result.containsKey(AccountManager.KEY_INTENT)) {
+            Log.i(MeetingSchedulerConstants.TAG, "Auth token needs the user's permission.");
+            return;
+          }
+
+          authToken = result.getString(AccountManager.KEY_AUTHTOKEN);
+          runnable.run();
+        } catch (OperationCanceledException e) {
+          Log.e(MeetingSchedulerConstants.TAG, "Operation Canceled", e);
+        } catch (IOException e) {
+          Log.e(MeetingSchedulerConstants.TAG, "IOException", e);
+        } catch (AuthenticatorException e) {
+          Log.e(MeetingSchedulerConstants.TAG, "Authentication Failed", e);
+        }
+      }
+    }, null /* handler */);
+  }
+
   private static void clearNewTaskFlag(Intent intent) {
     int flags = intent.getFlags();
     flags &= ~Intent.FLAG_ACTIVITY_NEW_TASK;
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+/**
+ * Availability over a window of time split into fixed-size slots, stored as a
+ * bitset where a set bit means the slot is free. A slot is busy as soon as any
+ * busy time overlaps it, so the free times read from the bitmap are aligned on
+ * slots and never overlap a busy time.
+ */
+public class AvailabilityBitmap {
+
+  /** Number of milliseconds in a minute. */
+  private static final long MINUTE = 60000;
+
+  /** The start of the first slot. */
+  private final long windowStart;
+
+  /** The end of the window, which may fall inside the last slot. */
+  private final long windowEnd;
+
+  /** The length of a slot in milliseconds. */
+  private final long slotLength;
+
+  /** The number of slots in the window. */
+  private final int slotCount;
+
+  /** The slots, one bit per slot. Bits past {@code slotCount} are always 0. */
+  private final long[] words;
+
+  /**
+   * Constructor. Every slot of the window is initially free.
+   *
+   * @param windowStart The start of the window, rounded down to a slot
+   *          boundary in local time, e.g 9:00 or 9:30 for 30 minute slots
+   *          even in a time zone which is 5:30 or 5:45 ahead of UTC.
+   * @param windowEnd The end of the window.
+   * @param slotMinutes The length of a slot in minutes.
+   * @param days The local days of the window.
+   */
+  public AvailabilityBitmap(long windowStart, long windowEnd, int slotMinutes, DayIndex days) {
+    this.slotLength = slotMinutes * MINUTE;
+    this.windowStart = windowStart - days.getMillisOfDay(windowStart) % slotLength;
+    this.windowEnd = windowEnd;
+    this.slotCount = (int) ((windowEnd - this.windowStart + slotLength - 1) / slotLength);
+    this.words = new long[(slotCount + 63) >>> 6];
+    setAllFree();
+  }
+
+  /**
+   * Mark every slot of the window as free.
+   */
+  public void setAllFree() {
+    for (int i = 0; i < words.length; ++i) {
+      words[i] = -1L;
+    }
+    if ((slotCount & 63) != 0)
+      words[words.length - 1] = (1L << slotCount) - 1;
+  }
+
+  /**
+   * Mark every slot overlapping {@code [start, end)} as busy.
+   *
+   * @param start The start of the busy time.
+   * @param end The end of the busy time.
+   */
+  public void setBusy(long start, long end) {
+    if (end <= windowStart || start >= end)
+      return;
+
+    int from = (int) Math.max(0, (start - windowStart) / slotLength);
+    long to = (end - windowStart + slotLength - 1) / slotLength;
+
+    if (from < slotCount)
+      clear(from, (int) Math.min(to, slotCount));
+  }
+
+  /**
+   * Mark every busy time of {@code busyTimes} as busy.
+   *
+   * @param busyTimes The busy times to add.
+   */
+  public void setBusy(TimeIntervals busyTimes) {
+    for (int i = 0; i < busyTimes.size(); ++i) {
+      setBusy(busyTimes.getStart(i), busyTimes.getEnd(i));
+    }
+  }
+
+  /**
+   * Keep only the slots that are also free in {@code other}. Both bitmaps
+   * must have been created with the same window and slot length.
+   *
+   * @param other The bitmap to intersect with.
+   */
+  public void and(AvailabilityBitmap other) {
+    for (int i = 0; i < words.length; ++i) {
+      words[i] &= other.words[i];
+    }
+  }
+
+  /**
+   * Find the runs of at least {@code minSlots} consecutive free slots.
+   *
+   * @param minSlots The minimum number of slots of a run.
+   * @return The free times covered by the runs, the last one ending at the
+   *         end of the window at the latest.
+   */
+  public TimeIntervals findFreeRuns(int minSlots) {
+    TimeIntervals result = new TimeIntervals();
+    int slot = nextFreeSlot(0);
+
+    while (slot >= 0) {
+      int end = nextBusySlot(slot);
+      long runStart = windowStart + slot * slotLength;
+      long runEnd = Math.min(windowStart + end * slotLength, windowEnd);
+
+      // The last slot is shorter when the window doesn't end on a boundary.
+      if (runEnd - runStart >= minSlots * slotLength)
+        result.add(runStart, runEnd);
+      slot = nextFreeSlot(end);
+    }
+
+    return result;
+  }
+
+  /**
+   * @return The length of a slot in minutes.
+   */
+  public int getSlotMinutes() {
+    return (int) (slotLength / MINUTE);
+  }
+
+  /**
+   * Mark the slots from {@code from} inclusive to {@code to} exclusive as busy.
+   */
+  private void clear(int from, int to) {
+    if (from >= to)
+      return;
+
+    int firstWord = from >>> 6;
+    int lastWord = (to - 1) >>> 6;
+    long firstMask = -1L << from;
+    long lastMask = -1L >>> -to;
+
+    if (firstWord == lastWord) {
+      words[firstWord] &= ~(firstMask & lastMask);
+    } else {
+      words[firstWord] &= ~firstMask;
+      for (int i = firstWord + 1; i < lastWord; ++i) {
+        words[i] = 0;
+      }
+      words[lastWord] &= ~lastMask;
+    }
+  }
+
+  /**
+   * @return The index of the first free slot at or after {@code from}, or -1.
+   */
+  private int nextFreeSlot(int from) {
+    if (from >= slotCount)
+      return -1;
+
+    int index = from >>> 6;
+    long word = words[index] & (-1L << from);
+
+    while (word == 0) {
+      if (++index == words.length)
+        return -1;
+      word = words[index];
+    }
+    return (index << 6) + Long.numberOfTrailingZeros(word);
+  }
+
+  /**
+   * @return The index of the first busy slot at or after {@code from}, or the
+   *         number of slots.
+   */
+  private int nextBusySlot(int from) {
+    int index = from >>> 6;
+    long word = ~words[index] & (-1L << from);
+
+    while (word == 0) {
+      if (++index == words.length)
+        return slotCount;
+      word = ~words[index];
+    }
+    return Math.min((index << 6) + Long.numberOfTrailingZeros(word), slotCount);
+  }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import java.util.Calendar;
+
+/**
+ * The recurring times at which meetings can be held, i.e the working hours on
+ * the working days, compiled once from the settings. Working hours are kept as
+ * minutes from midnight and working days as a bitmask indexed by
+ * Calendar.DAY_OF_WEEK, so the next available or unavailable time is computed
+ * arithmetically from a {@link DayIndex}.
+ */
+public class AvailabilityMask {
+
+  /** Number of milliseconds in a minute. */
+  private static final long MINUTE = 60000;
+
+  /** Number of minutes in a day. */
+  public static final int MINUTES_PER_DAY = 24 * 60;
+
+  /** Mask of every day of the week. */
+  public static final int ALL_DAYS = 0x7f;
+
+  /** Mask of the days of the week from Monday to Friday. */
+  public static final int WEEK_DAYS = ALL_DAYS & ~getDayBit(Calendar.SATURDAY)
+      & ~getDayBit(Calendar.SUNDAY);
+
+  /** Mask always available. */
+  public static final AvailabilityMask ALWAYS = new AvailabilityMask(0, MINUTES_PER_DAY, ALL_DAYS);
+
+  /** The start of the working hours in minutes from midnight. */
+  private final int startMinute;
+
+  /** The end of the working hours in minutes from midnight. */
+  private final int endMinute;
+
+  /** The working days, see {@link #getDayBit(int)}. */
+  private final int dayMask;
+
+  /**
+   * Constructor.
+   *
+   * @param startMinute The start of the working hours in minutes from
+   *          midnight.
+   * @param endMinute The end of the working hours in minutes from midnight,
+   *          {@link #MINUTES_PER_DAY} for the end of the day.
+   * @param dayMask The working days, e.g {@link #WEEK_DAYS}.
+   */
+  public AvailabilityMask(int startMinute, int endMinute, int dayMask) {
+    this.startMinute = startMinute;
+    this.endMinute = endMinute;
+    this.dayMask = dayMask & ALL_DAYS;
+  }
+
+  /**
+   * Parse a time formatted as "HH.MM".
+   *
+   * @param hoursDotMinutes The time to parse.
+   * @return The time in minutes from midnight.
+   */
+  public static int parseMinuteOfDay(String hoursDotMinutes) {
+    int dot = hoursDotMinutes.indexOf('.');
+
+    if (dot < 0)
+      return Integer.parseInt(hoursDotMinutes) * 60;
+    return Integer.parseInt(hoursDotMinutes.substring(0, dot)) * 60
+        + Integer.parseInt(hoursDotMinutes.substring(dot + 1));
+  }
+
+  /**
+   * @param dayOfWeek The Calendar.DAY_OF_WEEK of a day.
+   * @return The bit of the day in a day mask.
+   */
+  public static int getDayBit(int dayOfWeek) {
+    return 1 << (dayOfWeek - Calendar.SUNDAY);
+  }
+
+  /**
+   * @return True if every time is available.
+   */
+  public boolean isAlwaysAvailable() {
+    return dayMask == ALL_DAYS && startMinute <= 0 && endMinute >= MINUTES_PER_DAY;
+  }
+
+  /**
+   * @return True if no time is available.
+   */
+  public boolean isNeverAvailable() {
+    return dayMask == 0 || startMinute >= endMinute;
+  }
+
+  /**
+   * @param time The time from which to search.
+   * @param days The days of the query.
+   * @return The first available time at or after {@code time}, or
+   *         Long.MAX_VALUE if there is none.
+   */
+  public long getNextAvailableTime(long time, DayIndex days) {
+    if (isAlwaysAvailable())
+      return time;
+    if (isNeverAvailable())
+      return Long.MAX_VALUE;
+
+    for (int day = days.getDay(time);; ++day) {
+      if (isWorkingDay(day, days) && time < getWorkEnd(day, days))
+        return Math.max(time, getWorkStart(day, days));
+    }
+  }
+
+  /**
+   * @param time The time from which to search.
+   * @param days The days of the query.
+   * @return The first unavailable time at or after {@code time}, or
+   *         Long.MAX_VALUE if there is none.
+   */
+  public long getNextUnavailableTime(long time, DayIndex days) {
+    if (isAlwaysAvailable())
+      return Long.MAX_VALUE;
+
+    for (int day = days.getDay(time);; ++day) {
+      time = Math.max(time, days.getDayStart(day));
+      if (!isWorkingDay(day, days) || time < getWorkStart(day, days))
+        return time;
+
+      long workEnd = getWorkEnd(day, days);
+
+      // Working hours ending at midnight continue on the next day.
+      if (workEnd < days.getDayEnd(day) || time >= workEnd)
+        return Math.max(time, workEnd);
+    }
+  }
+
+  /**
+   * Mark the unavailable times between {@code start} and {@code end} as busy
+   * in {@code bitmap}.
+   *
+   * @param bitmap The bitmap to update.
+   * @param start The start of the times to mark.
+   * @param end The end of the times to mark.
+   * @param days The days of the query.
+   */
+  public void setUnavailable(AvailabilityBitmap bitmap, long start, long end, DayIndex days) {
+    long time = start;
+
+    while (time < end) {
+      long available = getNextAvailableTime(time, days);
+
+      bitmap.setBusy(time, Math.min(available, end));
+      if (available >= end)
+        break;
+      time = getNextUnavailableTime(available, days);
+    }
+  }
+
+  private boolean isWorkingDay(int day, DayIndex days) {
+    return (dayMask & getDayBit(days.getDayOfWeek(day))) != 0;
+  }
+
+  private long getWorkStart(int day, DayIndex days) {
+    if (startMinute <= 0)
+      return days.getDayStart(day);
+    return days.getTime(day, startMinute * MINUTE);
+  }
+
+  private long getWorkEnd(int day, DayIndex days) {
+    if (endMinute >= MINUTES_PER_DAY)
+      return days.getDayEnd(day);
+    return days.getTime(day, endMinute * MINUTE);
+  }
+
+}
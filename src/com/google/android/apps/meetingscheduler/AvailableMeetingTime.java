@@ -39,6 +39,9 @@ public class AvailableMeetingTime implements Serializable, Comparable<AvailableM
   /** The list of attendees to the event */
   public List<Attendee> attendees;
 
+  /** The list of attendees who are busy at that time, if any */
+  public List<Attendee> missingAttendees;
+
   /**
    * Default Constructor.
    */
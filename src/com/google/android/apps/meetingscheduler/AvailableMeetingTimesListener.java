@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives the provisional available meeting times computed from the attendees
+ * whose busy times have been retrieved so far. Each publication can only
+ * narrow the previous one, until every attendee has been retrieved. Also told
+ * about the attendees whose busy times couldn't be retrieved.
+ */
+public interface AvailableMeetingTimesListener {
+
+  /**
+   * Called when provisional available meeting times have been computed. May be
+   * called from a background thread.
+   *
+   * @param meetingTimes The provisional available meeting times mapped by
+   *          meeting length.
+   * @param pendingAttendees The number of attendees whose busy times haven't
+   *          been retrieved yet.
+   */
+  public void onAvailableMeetingTimes(Map<Integer, List<AvailableMeetingTime>> meetingTimes,
+      int pendingAttendees);
+
+  /**
+   * Called once every attendee has been retrieved or given up on, if the busy
+   * times of some attendees couldn't be retrieved. The final meeting times
+   * consider these attendees free. May be called from a background thread.
+   *
+   * @param attendees The attendees whose busy times couldn't be retrieved.
+   */
+  public void onFailedAttendees(List<Attendee> attendees);
+
+}
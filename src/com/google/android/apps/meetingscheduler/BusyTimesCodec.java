@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary encoding of the busy times of an attendee, grouped by day.
+ * Every number is a varint, i.e 7 bits per byte with the high bit set on all
+ * bytes but the last, and the signed ones are zigzag encoded first:
+ *
+ * <pre>
+ * unit                          milliseconds per unit, 60000 if every time is
+ *                               a whole minute, 1 otherwise
+ * day count
+ * index, for each day:
+ *   day start delta (signed)    from the previous day start, or from 0
+ *   block length                in bytes
+ * blocks, for each day:
+ *   interval count
+ *   for each interval:
+ *     gap (signed)              from the previous interval end, or day start
+ *     length                    end - start
+ * </pre>
+ *
+ * The index lets a range of days be decoded without decoding the others, and
+ * most busy times take 3 bytes. The decoding reads the bytes in place with
+ * absolute gets, so the encoded busy times can be read concurrently from a
+ * shared, e.g memory-mapped, {@link ByteBuffer} without copying them.
+ */
+public class BusyTimesCodec {
+
+  /** Number of milliseconds in a minute. */
+  private static final long MINUTE = 60 * 1000;
+
+  private BusyTimesCodec() {
+  }
+
+  /**
+   * Encode the busy times of an attendee.
+   *
+   * @param dayStarts The midnights of the days, in increasing order.
+   * @param dayBusyTimes The busy times of every day, sorted by start time and
+   *          clipped to the day.
+   * @return The encoded busy times.
+   */
+  public static byte[] encode(long[] dayStarts, TimeIntervals[] dayBusyTimes) {
+    long unit = getUnit(dayStarts, dayBusyTimes);
+    ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    int[] blockLengths = new int[dayStarts.length];
+
+    for (int day = 0; day < dayStarts.length; ++day) {
+      TimeIntervals busyTimes = dayBusyTimes[day];
+      long previousEnd = dayStarts[day] / unit;
+      int blockStart = blocks.size();
+
+      writeVarint(blocks, busyTimes.size());
+      for (int i = 0; i < busyTimes.size(); ++i) {
+        long start = busyTimes.getStart(i) / unit;
+        long end = busyTimes.getEnd(i) / unit;
+
+        writeVarint(blocks, zigzag(start - previousEnd));
+        writeVarint(blocks, end - start);
+        previousEnd = end;
+      }
+      blockLengths[day] = blocks.size() - blockStart;
+    }
+
+    writeVarint(result, unit);
+    writeVarint(result, dayStarts.length);
+    for (int day = 0; day < dayStarts.length; ++day) {
+      writeVarint(result, zigzag((dayStarts[day] - (day > 0 ? dayStarts[day - 1] : 0)) / unit));
+      writeVarint(result, blockLengths[day]);
+    }
+    byte[] blockBytes = blocks.toByteArray();
+
+    result.write(blockBytes, 0, blockBytes.length);
+    return result.toByteArray();
+  }
+
+  /**
+   * @param data The encoded busy times.
+   * @return The midnights of the encoded days, in increasing order.
+   */
+  public static long[] getDayStarts(byte[] data) {
+    return getDayStarts(ByteBuffer.wrap(data), 0);
+  }
+
+  /**
+   * @param data The buffer containing the encoded busy times.
+   * @param offset The offset of the encoded busy times in the buffer.
+   * @return The midnights of the encoded days, in increasing order.
+   */
+  public static long[] getDayStarts(ByteBuffer data, int offset) {
+    Reader reader = new Reader(data, offset);
+    long unit = reader.readVarint();
+    long[] result = new long[(int) reader.readVarint()];
+    long dayStart = 0;
+
+    for (int day = 0; day < result.length; ++day) {
+      dayStart += unzigzag(reader.readVarint()) * unit;
+      result[day] = dayStart;
+      reader.readVarint();
+    }
+    return result;
+  }
+
+  /**
+   * Decode the busy times of a range of days, skipping the blocks of the
+   * other days.
+   *
+   * @param data The encoded busy times.
+   * @param firstDay The midnight of the first day to decode.
+   * @param lastDay The midnight of the last day to decode.
+   * @param result The intervals to which to add the busy times, in order.
+   */
+  public static void decode(byte[] data, long firstDay, long lastDay, TimeIntervals result) {
+    decode(ByteBuffer.wrap(data), 0, firstDay, lastDay, result);
+  }
+
+  /**
+   * Decode the busy times of a range of days in place, skipping the blocks of
+   * the other days. Nothing but the busy times added to {@code result} is
+   * allocated.
+   *
+   * @param data The buffer containing the encoded busy times.
+   * @param offset The offset of the encoded busy times in the buffer.
+   * @param firstDay The midnight of the first day to decode.
+   * @param lastDay The midnight of the last day to decode.
+   * @param result The intervals to which to add the busy times, in order.
+   */
+  public static void decode(ByteBuffer data, int offset, long firstDay, long lastDay,
+      TimeIntervals result) {
+    Reader index = new Reader(data, offset);
+    long unit = index.readVarint();
+    int dayCount = (int) index.readVarint();
+    Reader blocks = new Reader(data, index.position);
+    long dayStart = 0;
+
+    // Skip the index to find the first block.
+    for (int day = 0; day < dayCount; ++day) {
+      blocks.readVarint();
+      blocks.readVarint();
+    }
+
+    for (int day = 0; day < dayCount; ++day) {
+      int blockLength;
+
+      dayStart += unzigzag(index.readVarint()) * unit;
+      blockLength = (int) index.readVarint();
+      if (dayStart > lastDay)
+        return;
+      if (dayStart < firstDay) {
+        blocks.position += blockLength;
+        continue;
+      }
+
+      int count = (int) blocks.readVarint();
+      long previousEnd = dayStart / unit;
+
+      for (int i = 0; i < count; ++i) {
+        long start = previousEnd + unzigzag(blocks.readVarint());
+        long end = start + blocks.readVarint();
+
+        result.add(start * unit, end * unit);
+        previousEnd = end;
+      }
+    }
+  }
+
+  /**
+   * @return The largest unit in which every time can be encoded exactly.
+   */
+  private static long getUnit(long[] dayStarts, TimeIntervals[] dayBusyTimes) {
+    for (int day = 0; day < dayStarts.length; ++day) {
+      TimeIntervals busyTimes = dayBusyTimes[day];
+
+      if (dayStarts[day] % MINUTE != 0)
+        return 1;
+      for (int i = 0; i < busyTimes.size(); ++i) {
+        if (busyTimes.getStart(i) % MINUTE != 0 || busyTimes.getEnd(i) % MINUTE != 0)
+          return 1;
+      }
+    }
+    return MINUTE;
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Reads the varints of the encoded busy times with absolute gets, leaving
+   * the position of the buffer untouched.
+   */
+  private static class Reader {
+
+    private final ByteBuffer data;
+    private int position;
+
+    public Reader(ByteBuffer data, int position) {
+      this.data = data;
+      this.position = position;
+    }
+
+    public long readVarint() {
+      long result = 0;
+
+      for (int shift = 0;; shift += 7) {
+        byte b = data.get(position++);
+
+        result |= (long) (b & 0x7F) << shift;
+        if (b >= 0)
+          return result;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+/**
+ * Receives the busy times of the attendees one by one, as soon as they are
+ * retrieved, while the other attendees are still being retrieved.
+ */
+public interface BusyTimesListener {
+
+  /**
+   * Called when the busy times of an attendee have been retrieved. May be
+   * called from several threads at once.
+   *
+   * @param attendee The attendee whose busy times have been retrieved.
+   * @param busyTimes The busy times of the attendee.
+   */
+  public void onBusyTimes(Attendee attendee, TimeIntervals busyTimes);
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import java.util.List;
+
+/**
+ * Merge several lists of busy times sorted by start time, e.g one list per
+ * attendee, into a single stream of non-overlapping busy times. The lists are
+ * walked with a min-heap keyed on the start time of their current busy time so
+ * merging N busy times from k lists costs O(N log k).
+ *
+ * <pre>
+ * BusyTimesMerger merger = new BusyTimesMerger(lists);
+ * while (merger.next()) {
+ *   use(merger.getStart(), merger.getEnd());
+ * }
+ * </pre>
+ */
+public class BusyTimesMerger {
+
+  /** The lists of busy times to merge. */
+  private final TimeIntervals[] sources;
+
+  /** The index of the current busy time of each list. */
+  private final int[] positions;
+
+  /** Min-heap of the indices of the lists which have busy times left. */
+  private final int[] heap;
+
+  /** The number of lists in the heap. */
+  private int heapSize;
+
+  /** The start of the current merged busy time. */
+  private long start;
+
+  /** The end of the current merged busy time. */
+  private long end;
+
+  /**
+   * Constructor. Lists which are not sorted by start time are sorted first.
+   *
+   * @param sources The lists of busy times to merge.
+   */
+  public BusyTimesMerger(List<TimeIntervals> sources) {
+    this.sources = sources.toArray(new TimeIntervals[sources.size()]);
+    positions = new int[this.sources.length];
+    heap = new int[this.sources.length];
+
+    for (int i = 0; i < this.sources.length; ++i) {
+      TimeIntervals source = this.sources[i];
+
+      if (source.size() > 0) {
+        if (!source.isSorted())
+          source.sort();
+        heap[heapSize++] = i;
+      }
+    }
+    for (int i = heapSize / 2 - 1; i >= 0; --i) {
+      siftDown(i);
+    }
+  }
+
+  /**
+   * Move to the next merged busy time.
+   *
+   * @return False if there are no more busy times.
+   */
+  public boolean next() {
+    if (heapSize == 0)
+      return false;
+
+    int source = heap[0];
+
+    start = getCurrentStart(source);
+    end = getCurrentEnd(source);
+    advance();
+
+    // Absorb every busy time overlapping or touching the current one.
+    while (heapSize > 0) {
+      source = heap[0];
+      if (getCurrentStart(source) > end)
+        break;
+      end = Math.max(end, getCurrentEnd(source));
+      advance();
+    }
+
+    return true;
+  }
+
+  /**
+   * @return The start of the current merged busy time.
+   */
+  public long getStart() {
+    return start;
+  }
+
+  /**
+   * @return The end of the current merged busy time.
+   */
+  public long getEnd() {
+    return end;
+  }
+
+  /**
+   * Move the list at the top of the heap to its next busy time.
+   */
+  private void advance() {
+    int source = heap[0];
+
+    if (++positions[source] == sources[source].size())
+      heap[0] = heap[--heapSize];
+    if (heapSize > 0)
+      siftDown(0);
+  }
+
+  /**
+   * Restore the heap property from {@code index} downwards.
+   *
+   * @param index The index in the heap from which to sift down.
+   */
+  private void siftDown(int index) {
+    int source = heap[index];
+    long key = getCurrentStart(source);
+
+    while (true) {
+      int child = 2 * index + 1;
+
+      if (child >= heapSize)
+        break;
+      if (child + 1 < heapSize
+          && getCurrentStart(heap[child + 1]) < getCurrentStart(heap[child]))
+        ++child;
+      if (getCurrentStart(heap[child]) >= key)
+        break;
+      heap[index] = heap[child];
+      index = child;
+    }
+    heap[index] = source;
+  }
+
+  private long getCurrentStart(int source) {
+    return sources[source].getStart(positions[source]);
+  }
+
+  private long getCurrentEnd(int source) {
+    return sources[source].getEnd(positions[source]);
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The busy times of the attendees along with where they come from. The
+ * attendees whose busy times couldn't be retrieved are not in the map but
+ * still have a {@link Status#FAILED} status, so the meeting times can be
+ * computed from the attendees who did answer.
+ */
+public class BusyTimesResult extends HashMap<Attendee, TimeIntervals> {
+
+  /** For serialization purposes */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Where the busy times of an attendee come from.
+   */
+  public enum Status {
+    /** Retrieved from the Calendar API during this request. */
+    FRESH,
+    /** Read from the on-device cache. */
+    CACHED,
+    /** Couldn't be retrieved. */
+    FAILED
+  }
+
+  /** The status of the attendees, the ones missing are fresh or failed. */
+  private final Map<Attendee, Status> statuses = new HashMap<Attendee, Status>();
+
+  /**
+   * Add the busy times of an attendee.
+   *
+   * @param attendee The attendee.
+   * @param busyTimes The busy times of the attendee.
+   * @param status Where the busy times come from.
+   */
+  public void put(Attendee attendee, TimeIntervals busyTimes, Status status) {
+    put(attendee, busyTimes);
+    statuses.put(attendee, status);
+  }
+
+  /**
+   * Add the busy times of attendees from another result along with their
+   * status, marking the attendees missing from it as failed.
+   *
+   * @param attendees The attendees to add.
+   * @param result The result containing the busy times of the attendees.
+   */
+  public void putAll(List<Attendee> attendees, BusyTimesResult result) {
+    for (Attendee attendee : attendees) {
+      if (result.containsKey(attendee))
+        put(attendee, result.get(attendee), result.getStatus(attendee));
+      else
+        setFailed(attendee);
+    }
+  }
+
+  /**
+   * Mark an attendee whose busy times couldn't be retrieved.
+   *
+   * @param attendee The attendee.
+   */
+  public void setFailed(Attendee attendee) {
+    remove(attendee);
+    statuses.put(attendee, Status.FAILED);
+  }
+
+  /**
+   * @param attendee The attendee.
+   * @return Where the busy times of the attendee come from, FAILED if they are
+   *         not in the result.
+   */
+  public Status getStatus(Attendee attendee) {
+    Status status = statuses.get(attendee);
+
+    if (status != null)
+      return status;
+    return containsKey(attendee) ? Status.FRESH : Status.FAILED;
+  }
+
+  /**
+   * @param attendees The attendees to check.
+   * @return The attendees whose busy times couldn't be retrieved, in the order
+   *         of {@code attendees}.
+   */
+  public List<Attendee> getFailedAttendees(List<Attendee> attendees) {
+    List<Attendee> result = new ArrayList<Attendee>();
+
+    for (Attendee attendee : attendees) {
+      if (getStatus(attendee) == Status.FAILED)
+        result.add(attendee);
+    }
+    return result;
+  }
+
+}
@@ -32,7 +32,9 @@ import java.util.Map;
 public interface BusyTimesRetriever {
 
   /**
-   * Returns the list of busy times for the given attendees.
+   * Returns the list of busy times for the given attendees, from the day of
+   * {@code startDate} until the end of the day the settings' time span later,
+   * i.e every day of the window in which meeting times are looked for.
    * 
    * @param attendees The list of attendees for which to retrieve the busy
    *          times.
@@ -42,4 +44,47 @@ public interface BusyTimesRetriever {
   public Map<Attendee, List<Busy>> getBusyTimes(List<Attendee> attendees,
       Date startDate, Context context);
 
+  /**
+   * Returns the list of busy times for the given attendees over
+   * {@code timeSpan} days from the day of {@code startDate}.
+   * 
+   * @param attendees The list of attendees for which to retrieve the busy
+   *          times.
+   * @param startDate the date from which to start querying busy times.
+   * @param timeSpan The number of days for which to query busy times.
+   * @return The list of busy times
+   */
+  public Map<Attendee, List<Busy>> getBusyTimes(List<Attendee> attendees,
+      Date startDate, int timeSpan, Context context);
+
+  /**
+   * Returns the busy times for the given attendees over {@code timeSpan} days
+   * from the day of {@code startDate}, as intervals instead of {@link Busy}
+   * objects. The attendees whose busy times couldn't be retrieved are missing
+   * from the result and have a {@link BusyTimesResult.Status#FAILED} status.
+   * 
+   * @param attendees The list of attendees for which to retrieve the busy
+   *          times.
+   * @param startDate the date from which to start querying busy times.
+   * @param timeSpan The number of days for which to query busy times.
+   * @return The busy times and status of each attendee.
+   */
+  public BusyTimesResult getBusyIntervals(List<Attendee> attendees,
+      Date startDate, int timeSpan, Context context);
+
+  /**
+   * Same as {@link #getBusyIntervals(List, Date, int, Context)} but also
+   * publishes the busy times of each attendee to {@code listener} as soon as
+   * they are retrieved, before this method returns.
+   * 
+   * @param attendees The list of attendees for which to retrieve the busy
+   *          times.
+   * @param startDate the date from which to start querying busy times.
+   * @param timeSpan The number of days for which to query busy times.
+   * @param listener The listener to which to publish the busy times, or null.
+   * @return The busy times and status of each attendee.
+   */
+  public BusyTimesResult getBusyIntervals(List<Attendee> attendees,
+      Date startDate, int timeSpan, Context context, BusyTimesListener listener);
+
 }
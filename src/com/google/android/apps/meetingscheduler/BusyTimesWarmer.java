@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retrieves the busy times of the attendees in the background while they are
+ * being selected, so that they are already cached when the meeting times are
+ * searched. The attendees selected in a row are retrieved together once no
+ * attendee has been selected for {@link #DEBOUNCE_DELAY} milliseconds.
+ *
+ * The retriever should cache the busy times, e.g a
+ * {@link CachingBusyTimesRetriever}, as the retrieved busy times are dropped.
+ */
+public class BusyTimesWarmer {
+
+  /**
+   * Time in milliseconds without a new selected attendee after which the
+   * selected attendees are retrieved.
+   */
+  public static final long DEBOUNCE_DELAY = 750;
+
+  private final BusyTimesRetriever retriever;
+  private final Context context;
+
+  /** The thread retrieving the busy times. */
+  private final ScheduledExecutorService executor = Executors
+      .newSingleThreadScheduledExecutor();
+
+  /** The attendees selected and not retrieved yet. */
+  private final Set<Attendee> pendingAttendees = new LinkedHashSet<Attendee>();
+
+  /** The next retrieval, or null. */
+  private ScheduledFuture<?> scheduledWarmUp;
+
+  /** Whether the warmer has been cancelled. */
+  private boolean cancelled;
+
+  /**
+   * Constructor.
+   *
+   * @param retriever The retriever caching the busy times.
+   * @param context The application context.
+   */
+  public BusyTimesWarmer(BusyTimesRetriever retriever, Context context) {
+    this.retriever = retriever;
+    this.context = context;
+  }
+
+  /**
+   * Retrieve the busy times of an attendee who has just been selected, along
+   * with the next ones.
+   *
+   * @param attendee The attendee selected.
+   */
+  public synchronized void addAttendee(Attendee attendee) {
+    if (cancelled)
+      return;
+
+    pendingAttendees.add(attendee);
+    if (scheduledWarmUp != null)
+      scheduledWarmUp.cancel(false);
+    scheduledWarmUp = executor.schedule(new Runnable() {
+      public void run() {
+        warmUp();
+      }
+    }, DEBOUNCE_DELAY, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Don't retrieve the busy times of an attendee who has just been
+   * unselected, unless they are being retrieved already.
+   *
+   * @param attendee The attendee unselected.
+   */
+  public synchronized void removeAttendee(Attendee attendee) {
+    pendingAttendees.remove(attendee);
+  }
+
+  /**
+   * Drop the attendees not retrieved yet, e.g when the meeting times are about
+   * to be searched, letting a running retrieval finish so that its busy times
+   * are cached.
+   */
+  public synchronized void cancelPending() {
+    pendingAttendees.clear();
+    if (scheduledWarmUp != null)
+      scheduledWarmUp.cancel(false);
+  }
+
+  /**
+   * Stop retrieving the busy times, including the running retrieval. The
+   * warmer can't be used anymore.
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+    pendingAttendees.clear();
+    executor.shutdownNow();
+  }
+
+  /**
+   * Retrieve the busy times of the pending attendees for the time span from
+   * which the meeting times will be searched.
+   */
+  private void warmUp() {
+    List<Attendee> attendees;
+
+    synchronized (this) {
+      if (CalendarServiceManager.getInstance().getService() == null) {
+        Log.i(MeetingSchedulerConstants.TAG, "Not authenticated, not warming up busy times");
+        return;
+      }
+      attendees = new ArrayList<Attendee>(pendingAttendees);
+      pendingAttendees.clear();
+    }
+    if (attendees.isEmpty())
+      return;
+
+    Calendar startDate = Calendar.getInstance();
+    long start = System.currentTimeMillis();
+
+    startDate.add(Calendar.DAY_OF_YEAR, 1);
+    // The last day of the window is only partially covered by the time span.
+    retriever.getBusyIntervals(attendees, startDate.getTime(), Settings.getInstance()
+        .getTimeSpan() + 1, context);
+    Log.i(MeetingSchedulerConstants.TAG, "Warmed up the busy times of " + attendees.size()
+        + " attendee(s) in " + (System.currentTimeMillis() - start) + "ms");
+  }
+
+}
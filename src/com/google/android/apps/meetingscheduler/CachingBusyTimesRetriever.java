@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.api.data.calendar.v2.model.Busy;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * BusyTimesRetriever serving the busy times from a {@link FreeBusyCache} and
+ * only asking the wrapped retriever for the days missing from the cache. The
+ * attendees with missing days are fetched together in a single request
+ * covering the range of their missing days, then the fetched and cached busy
+ * times are stitched together. The attendees who couldn't be fetched fall back
+ * on their stale cached days if every day is cached.
+ */
+public class CachingBusyTimesRetriever implements BusyTimesRetriever {
+
+  /** The retriever from which to fetch the missing days. */
+  private final BusyTimesRetriever retriever;
+
+  /** The cache of the busy times. */
+  private final FreeBusyCache cache;
+
+  /**
+   * Constructor.
+   *
+   * @param retriever The retriever from which to fetch the missing days.
+   * @param cache The cache of the busy times.
+   */
+  public CachingBusyTimesRetriever(BusyTimesRetriever retriever, FreeBusyCache cache) {
+    this.retriever = retriever;
+    this.cache = cache;
+  }
+
+  @Override
+  public Map<Attendee, List<Busy>> getBusyTimes(List<Attendee> attendees, Date startDate,
+      Context context) {
+    return getBusyTimes(attendees, startDate, Settings.getInstance().getTimeSpan() + 1, context);
+  }
+
+  @Override
+  public Map<Attendee, List<Busy>> getBusyTimes(List<Attendee> attendees, Date startDate,
+      int timeSpan, Context context) {
+    Map<Attendee, List<Busy>> result = new HashMap<Attendee, List<Busy>>();
+
+    for (Map.Entry<Attendee, TimeIntervals> entry : getBusyIntervals(attendees, startDate,
+        timeSpan, context).entrySet()) {
+      result.put(entry.getKey(), entry.getValue().toBusyTimes());
+    }
+
+    return result;
+  }
+
+  @Override
+  public BusyTimesResult getBusyIntervals(List<Attendee> attendees, Date startDate,
+      int timeSpan, Context context) {
+    return getBusyIntervals(attendees, startDate, timeSpan, context, null);
+  }
+
+  /**
+   * The attendees fully cached are published to {@code listener} first, then
+   * the others as soon as their missing days have been fetched and stored.
+   */
+  @Override
+  public BusyTimesResult getBusyIntervals(List<Attendee> attendees, Date startDate,
+      int timeSpan, Context context, BusyTimesListener listener) {
+    long now = System.currentTimeMillis();
+    DayIndex days = new DayIndex(CalendarServiceManager.getInstance().getTimeZone(),
+        startDate.getTime(), timeSpan);
+    int firstDay = days.getDay(startDate.getTime());
+    int lastDay = firstDay + timeSpan - 1;
+    List<Attendee> missingAttendees = new ArrayList<Attendee>();
+    int fetchFirstDay = lastDay + 1;
+    int fetchLastDay = firstDay - 1;
+    BusyTimesResult result = new BusyTimesResult();
+
+    cache.deleteDaysBefore(days.getDayStart(days.getDay(now)));
+    for (Attendee attendee : attendees) {
+      Set<Long> freshDays = cache.getFreshDays(attendee.email, days.getDayStart(firstDay),
+          days.getDayStart(lastDay), now);
+      boolean missing = false;
+
+      for (int day = firstDay; day <= lastDay; ++day) {
+        if (!freshDays.contains(days.getDayStart(day))) {
+          missing = true;
+          fetchFirstDay = Math.min(fetchFirstDay, day);
+          fetchLastDay = Math.max(fetchLastDay, day);
+        }
+      }
+      if (missing) {
+        missingAttendees.add(attendee);
+      } else {
+        TimeIntervals busyTimes = cache.getBusyTimes(attendee.email, days.getDayStart(firstDay),
+            days.getDayStart(lastDay));
+
+        result.put(attendee, busyTimes, BusyTimesResult.Status.CACHED);
+        if (listener != null)
+          listener.onBusyTimes(attendee, busyTimes);
+      }
+    }
+
+    fetchMissingDays(missingAttendees, days, fetchFirstDay, fetchLastDay, firstDay, lastDay, now,
+        context, result, listener);
+
+    for (Attendee attendee : missingAttendees) {
+      if (!result.containsKey(attendee))
+        addStaleBusyTimes(attendee, days, firstDay, lastDay, result, listener);
+    }
+
+    return result;
+  }
+
+  /**
+   * Add the cached busy times of an attendee who couldn't be fetched if every
+   * day is cached, even if they are no longer fresh, or mark the attendee as
+   * failed.
+   */
+  private void addStaleBusyTimes(Attendee attendee, DayIndex days, int firstDay, int lastDay,
+      BusyTimesResult result, BusyTimesListener listener) {
+    Set<Long> cachedDays = cache.getCachedDays(attendee.email, days.getDayStart(firstDay),
+        days.getDayStart(lastDay));
+
+    if (cachedDays.size() < lastDay - firstDay + 1) {
+      result.setFailed(attendee);
+      return;
+    }
+
+    TimeIntervals busyTimes = cache.getBusyTimes(attendee.email, days.getDayStart(firstDay),
+        days.getDayStart(lastDay));
+
+    Log.i(MeetingSchedulerConstants.TAG, "Using stale busy times for " + attendee.email);
+    result.put(attendee, busyTimes, BusyTimesResult.Status.CACHED);
+    if (listener != null)
+      listener.onBusyTimes(attendee, busyTimes);
+  }
+
+  /**
+   * Fetch the busy times of the attendees from {@code fetchFirstDay} to
+   * {@code fetchLastDay}, store them in the cache, then add their busy times
+   * from {@code firstDay} to {@code lastDay} to {@code result}. The attendees
+   * whose busy times couldn't be fetched are left out of {@code result}.
+   */
+  private void fetchMissingDays(List<Attendee> attendees, final DayIndex days,
+      final int fetchFirstDay, final int fetchLastDay, int firstDay, int lastDay, final long now,
+      Context context, final BusyTimesResult result,
+      final BusyTimesListener listener) {
+    if (attendees.isEmpty())
+      return;
+
+    Log.i(MeetingSchedulerConstants.TAG, "Fetching " + (fetchLastDay - fetchFirstDay + 1)
+        + " day(s) of busy times for " + attendees.size() + " attendee(s)");
+
+    final long firstDayStart = days.getDayStart(firstDay);
+    final long lastDayStart = days.getDayStart(lastDay);
+
+    // The wrapped retriever may publish from several threads at once.
+    retriever.getBusyIntervals(attendees, new Date(days.getDayStart(fetchFirstDay)),
+        fetchLastDay - fetchFirstDay + 1, context, new BusyTimesListener() {
+          @Override
+          public void onBusyTimes(Attendee attendee, TimeIntervals busyTimes) {
+            if (!busyTimes.isSorted())
+              busyTimes.sort();
+            cache.putBusyTimes(attendee.email, busyTimes, days, fetchFirstDay, fetchLastDay, now);
+
+            TimeIntervals cachedBusyTimes = cache.getBusyTimes(attendee.email, firstDayStart,
+                lastDayStart);
+
+            synchronized (result) {
+              result.put(attendee, cachedBusyTimes, BusyTimesResult.Status.FRESH);
+            }
+            if (listener != null)
+              listener.onBusyTimes(attendee, cachedBusyTimes);
+          }
+        });
+  }
+
+}
@@ -18,25 +18,37 @@ package com.google.android.apps.meetingscheduler;
 
 import android.content.Context;
 
-import com.google.api.client.util.DateTime;
-import com.google.api.data.calendar.v2.model.Busy;
-import com.google.api.data.gdata.v2.model.When;
-
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Compute the common free times from the busy times fetched from the
- * BusyTimesRetriever.
+ * BusyTimesRetriever. The computation itself is done by the
+ * {@link FreeTimeEngine}.
  * 
  * @author Alain Vongsouvanh (alainv@google.com)
  */
 public class CommonFreeTimesRetriever implements EventTimeRetriever {
 
+  /**
+   * Minimum time between two provisional publications in milliseconds, so
+   * that the attendees retrieved in a burst are published together.
+   */
+  private static final long PROVISIONAL_INTERVAL = 250;
+
+  /**
+   * The thread computing the provisional meeting times, so that neither the
+   * threads retrieving the busy times nor the UI thread are held up by them.
+   */
+  private static final ScheduledExecutorService PROVISIONAL_EXECUTOR = Executors
+      .newSingleThreadScheduledExecutor();
+
   /**
    * The BusyTimesRetriever from which to retrieve the busy time.
    */
@@ -69,183 +81,132 @@ public class CommonFreeTimesRetriever implements EventTimeRetriever {
   @Override
   public List<AvailableMeetingTime> getAvailableMeetingTime(List<Attendee> attendees,
       Date startDate, Context context) {
-    Map<Attendee, List<Busy>> busyTimes = busyTimeRetriever.getBusyTimes(attendees, startDate,
-        context);
-    Settings settings = Settings.getInstance();
-    List<Busy> listBusyTimes = cleanBusyTimes(busyTimes, startDate, settings);
-    List<AvailableMeetingTime> result = findAvailableMeetings(listBusyTimes);
-
-    filterMeetingLength(result, settings.getMeetingLength());
-    splitAvailableMeetings(result);
+    FreeTimeEngine engine = createEngine(attendees, startDate, context);
+    List<AvailableMeetingTime> result = engine.getAvailableMeetingTimes(startDate,
+        Settings.getInstance());
 
     addAttendees(result, attendees);
 
     return result;
   }
 
-  /**
-   * Add weekends and non-working hours as busy times if requested and merge all
-   * the busy times.
-   * @param busyTimes The busy times to clean
-   * @param startDate The date from which to start cleaning
-   * @param settings The setting to use for cleaning the busy times
-   * 
-   * @return A list of cleaned busy times.
-   */
-  private List<Busy> cleanBusyTimes(Map<Attendee, List<Busy>> busyTimes, Date startDate,
-      Settings settings) {
-    List<Busy> listBusyTimes = new ArrayList<Busy>();
-
-    for (List<Busy> busy : busyTimes.values()) {
-      listBusyTimes.addAll(busy);
-    }
-
-    if (settings.doSkipWeekends()) {
-      addWeekends(listBusyTimes, startDate, settings.getTimeSpan());
-    }
-    if (settings.doUseWorkingHours()) {
-      addWorkingHours(listBusyTimes, startDate, settings.getTimeSpan(),
-          DateUtils.getCalendar(settings.getWorkingHoursStart()),
-          DateUtils.getCalendar(settings.getWorkingHoursEnd()));
+  @Override
+  public Map<Integer, List<AvailableMeetingTime>> getAvailableMeetingTimeByLength(
+      List<Attendee> attendees, int[] meetingLengths, Date startDate, Context context) {
+    FreeTimeEngine engine = createEngine(attendees, startDate, context);
+    Map<Integer, List<AvailableMeetingTime>> result = engine.getAvailableMeetingTimes(startDate,
+        Settings.getInstance(), meetingLengths);
+
+    // The lists share their meeting times, adding the attendees once is enough.
+    for (List<AvailableMeetingTime> meetings : result.values()) {
+      addAttendees(meetings, attendees);
     }
 
-    mergeBusyTimes(listBusyTimes);
-    return listBusyTimes;
+    return result;
   }
 
-  /**
-   * Add weekends as busy times to the list of busy times.
-   * 
-   * @param busyTimes The list of busy times to which to add the weekends
-   * @param startDate The start date from which
-   * @param timeSpan
-   */
-  private void addWeekends(List<Busy> busyTimes, Date startDate, int timeSpan) {
-    Calendar calendar = new GregorianCalendar(CalendarServiceManager.getInstance().getTimeZone());
+  @Override
+  public Iterator<Map<Integer, List<AvailableMeetingTime>>> getAvailableMeetingTimeIterator(
+      List<Attendee> attendees, int[] meetingLengths, Date startDate, Context context) {
+    return getAvailableMeetingTimeIterator(attendees, meetingLengths, startDate, context, null);
+  }
 
-    calendar.setTime(startDate);
+  @Override
+  public Iterator<Map<Integer, List<AvailableMeetingTime>>> getAvailableMeetingTimeIterator(
+      final List<Attendee> attendees, int[] meetingLengths, Date startDate, Context context,
+      AvailableMeetingTimesListener listener) {
+    ProvisionalPublisher publisher = null;
 
-    for (int i = 0; i < timeSpan; ++i) {
-      int day = calendar.get(Calendar.DAY_OF_WEEK);
+    if (listener != null)
+      publisher = new ProvisionalPublisher(attendees, meetingLengths, startDate, listener);
 
-      if (day == Calendar.SATURDAY || day == Calendar.SUNDAY) {
-        Busy toAdd = new Busy();
+    FreeTimeEngine engine = createEngine(attendees, startDate, context, publisher);
+    final Iterator<Map<Integer, List<AvailableMeetingTime>>> iterator = engine
+        .getAvailableMeetingTimeIterator(startDate, Settings.getInstance(), meetingLengths);
 
-        toAdd.when = new When();
-        DateUtils.setTime(calendar, 0, 0, 0, 0);
-        toAdd.when.startTime = new DateTime(calendar.getTime());
-        DateUtils.setTime(calendar, 23, 59, 59, 999);
-        toAdd.when.endTime = new DateTime(calendar.getTime());
-        busyTimes.add(toAdd);
+    return new Iterator<Map<Integer, List<AvailableMeetingTime>>>() {
+      public boolean hasNext() {
+        return iterator.hasNext();
       }
-      calendar.add(Calendar.DAY_OF_YEAR, 1);
-    }
-  }
 
-  /**
-   * Add non-working hours as busy times to the list of busy times.
-   * 
-   * @param busyTimes The busy times to which to add the non-working hours
-   * @param startDate The start date from which to start adding busy times
-   * @param timeSpan The number of day for which to add busy times
-   * @param min The starting working hour
-   * @param max The ending working hour
-   */
-  private void addWorkingHours(List<Busy> busyTimes, Date startDate, int timeSpan, Calendar min,
-      Calendar max) {
-    Calendar current = new GregorianCalendar(CalendarServiceManager.getInstance().getTimeZone());
+      public Map<Integer, List<AvailableMeetingTime>> next() {
+        Map<Integer, List<AvailableMeetingTime>> meetingTimes = iterator.next();
 
-    current.setTime(startDate);
+        for (List<AvailableMeetingTime> meetings : meetingTimes.values()) {
+          addAttendees(meetings, attendees);
+        }
+        return meetingTimes;
+      }
 
-    DateUtils.setTime(current, min);
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
 
-    if (current.getTime().after(startDate)) {
-      Busy toAdd = new Busy();
+  @Override
+  public List<AvailableMeetingTime> getQuorumMeetingTime(List<Attendee> attendees,
+      int minAttendees, Date startDate, Context context) {
+    FreeTimeEngine engine = createEngine(attendees, startDate, context);
 
-      toAdd.when = new When();
-      toAdd.when.startTime = new DateTime(startDate.getTime());
-      toAdd.when.endTime = new DateTime(current.getTime());
-      busyTimes.add(toAdd);
-    }
+    return engine.getQuorumMeetingTimes(startDate, Settings.getInstance(), attendees,
+        minAttendees);
+  }
 
-    for (int i = 0; i < timeSpan; ++i) {
-      DateUtils.setTime(current, max);
-      Busy toAdd = new Busy();
+  @Override
+  public List<AvailableMeetingTime> getBestMeetingTime(List<Attendee> attendees, Date startDate,
+      int count, MeetingTimeScorer scorer, Context context) {
+    FreeTimeEngine engine = createEngine(attendees, startDate, context);
+    List<AvailableMeetingTime> result = engine.getBestMeetingTimes(startDate,
+        Settings.getInstance(), count, scorer);
 
-      toAdd.when = new When();
-      toAdd.when.startTime = new DateTime(current.getTime());
-      current.add(Calendar.DAY_OF_YEAR, 1);
-      DateUtils.setTime(current, min);
-      toAdd.when.endTime = new DateTime(current.getTime());
-      busyTimes.add(toAdd);
-    }
-  }
+    addAttendees(result, attendees);
 
-  /**
-   * Merge the overlapping busy times, e.g 9:00-10:00 and 10:00-12:00 will
-   * become one 9:00-12:00 busy time.
-   * 
-   * @param busyTimes The busy times to merge.
-   */
-  private void mergeBusyTimes(List<Busy> busyTimes) {
-    DateUtils.sortBusyTime(busyTimes);
-
-    // Merge every busy slots.
-    for (int i = 0; i < busyTimes.size(); ++i) {
-      Busy current = busyTimes.get(i);
-
-      for (int j = i + 1; j < busyTimes.size();) {
-        Busy next = busyTimes.get(j);
-
-        if (DateUtils.compareDateTime(current.when.endTime, next.when.startTime) >= 0) {
-          if (DateUtils.compareDateTime(current.when.endTime, next.when.endTime) < 0)
-            current.when.endTime = next.when.endTime;
-          busyTimes.remove(j);
-        } else
-          break;
-      }
-    }
+    return result;
   }
 
   /**
-   * Find the available meetings from the list of busy times. The busy times are
-   * considered to be on the same day, sorted and merged.
+   * Retrieve the busy times of the attendees and add them to a new engine, in
+   * the order of {@code attendees}.
    * 
-   * @param busyTimes The busy times from which to compute the available meeting
-   * @return The available meetings time from 00:00 to 23:59 of the same day.
+   * @param attendees The attendees for whom to retrieve the busy times.
+   * @param startDate The date from which to retrieve the busy times.
+   * @param context The application context.
+   * @return The engine to use for computing the free times.
    */
-  private List<AvailableMeetingTime> findAvailableMeetings(List<Busy> busyTimes) {
-    List<AvailableMeetingTime> result = new ArrayList<AvailableMeetingTime>();
-
-    for (int i = 0; i < busyTimes.size() - 1;) {
-      AvailableMeetingTime tmp = new AvailableMeetingTime();
-
-      tmp.start = new Date(busyTimes.get(i).when.endTime.value);
-      tmp.end = new Date(busyTimes.get(++i).when.startTime.value);
-      result.add(tmp);
-    }
-
-    return result;
+  private FreeTimeEngine createEngine(List<Attendee> attendees, Date startDate, Context context) {
+    return createEngine(attendees, startDate, context, null);
   }
 
   /**
-   * Split multiple day-meeting times into multiple one-day meeting times.
+   * Retrieve the busy times of the attendees, publishing provisional meeting
+   * times through {@code publisher} meanwhile, and add them to a new engine.
    * 
-   * @param busyTimes The busy times to clean.
+   * @param attendees The attendees for whom to retrieve the busy times.
+   * @param startDate The date from which to retrieve the busy times.
+   * @param context The application context.
+   * @param publisher The publisher of the provisional meeting times, or null.
+   * @return The engine to use for computing the free times.
    */
-  private void splitAvailableMeetings(List<AvailableMeetingTime> meetings) {
-    for (int i = 0; i < meetings.size();) {
-      AvailableMeetingTime current = meetings.get(i);
-
-      if (!DateUtils.isSameDay(current.start, current.end)) {
-        List<AvailableMeetingTime> splitted = splitMeetingTimes(current.start, current.end);
-
-        meetings.remove(i);
-        meetings.addAll(i, splitted);
-        i += splitted.size();
-      } else
-        ++i;
+  private FreeTimeEngine createEngine(List<Attendee> attendees, Date startDate, Context context,
+      ProvisionalPublisher publisher) {
+    // The last day of the window is only partially covered by the time span.
+    BusyTimesResult busyTimes = busyTimeRetriever.getBusyIntervals(attendees, startDate,
+        Settings.getInstance().getTimeSpan() + 1, context, publisher);
+
+    if (publisher != null)
+      publisher.close(busyTimes.getFailedAttendees(attendees));
+    FreeTimeEngine engine = new FreeTimeEngine(CalendarServiceManager.getInstance().getTimeZone());
+
+    // The attendees whose busy times couldn't be retrieved are considered free
+    // so the meeting times are still accurate for the others.
+    for (Attendee attendee : attendees) {
+      TimeIntervals busy = busyTimes.get(attendee);
+
+      engine.addBusyTimes(busy != null ? busy : new TimeIntervals());
     }
+
+    return engine;
   }
 
   /**
@@ -261,65 +222,131 @@ public class CommonFreeTimesRetriever implements EventTimeRetriever {
   }
 
   /**
-   * Split a busy time into a set of busy time, each for one day.
-   * 
-   * @param startDate
-   * @param endDate
-   * @return
+   * Keeps a copy of the busy times of the attendees as they are retrieved and
+   * publishes the meeting times computed from the attendees retrieved so far,
+   * at most every {@link #PROVISIONAL_INTERVAL} milliseconds. An attendee
+   * retrieved sooner is published by a publication scheduled at the end of the
+   * interval. The meeting times are computed on the provisional thread, one
+   * publication at a time, from a snapshot of the busy times taken under the
+   * lock.
    */
-  private List<AvailableMeetingTime> splitMeetingTimes(Date startDate, Date endDate) {
-    List<AvailableMeetingTime> result = new ArrayList<AvailableMeetingTime>();
-    Calendar currentDay = new GregorianCalendar(CalendarServiceManager.getInstance().getTimeZone());
+  private class ProvisionalPublisher implements BusyTimesListener {
+
+    private final List<Attendee> attendees;
+    private final int[] meetingLengths;
+    private final Date startDate;
+    private final AvailableMeetingTimesListener listener;
 
-    currentDay.setTime(startDate);
-    DateUtils.setTime(currentDay, 23, 59, 59, 999);
+    /** The engine, only used from the provisional thread. */
+    private final FreeTimeEngine engine;
 
-    result.add(new AvailableMeetingTime(startDate, currentDay.getTime()));
+    /** Copies of the busy times retrieved so far. */
+    private final List<TimeIntervals> busyTimes = new ArrayList<TimeIntervals>();
 
-    while (true) {
-      DateUtils.setTime(currentDay, 0, 0, 0, 0);
-      currentDay.add(Calendar.DAY_OF_YEAR, 1);
-      Date currentStart = currentDay.getTime();
+    /** The number of busy times already added to the engine. */
+    private int added;
 
-      if (DateUtils.isSameDay(currentStart, endDate))
-        break;
+    /** The time of the last publication. */
+    private long lastPublication;
 
-      DateUtils.setTime(currentDay, 23, 59, 59, 999);
-      result.add(new AvailableMeetingTime(currentStart, currentDay.getTime()));
+    /** Whether a publication is pending on the provisional thread. */
+    private boolean scheduled;
+
+    /** Whether every attendee has been retrieved or given up on. */
+    private boolean closed;
+
+    public ProvisionalPublisher(List<Attendee> attendees, int[] meetingLengths, Date startDate,
+        AvailableMeetingTimesListener listener) {
+      this.attendees = attendees;
+      this.meetingLengths = meetingLengths;
+      this.startDate = startDate;
+      this.listener = listener;
+      this.engine = new FreeTimeEngine(CalendarServiceManager.getInstance().getTimeZone());
+      // Don't publish anything if every attendee is retrieved quickly, e.g
+      // from the cache.
+      this.lastPublication = System.currentTimeMillis();
     }
 
-    result.add(new AvailableMeetingTime(currentDay.getTime(), endDate));
+    /**
+     * Synchronized as the busy times can be retrieved from several threads.
+     */
+    @Override
+    public synchronized void onBusyTimes(Attendee attendee, TimeIntervals attendeeBusyTimes) {
+      if (closed)
+        return;
+
+      busyTimes.add(attendeeBusyTimes);
+      if (!scheduled && busyTimes.size() < attendees.size())
+        schedule();
+    }
 
-    return result;
-  }
+    /**
+     * Stop publishing, the final meeting times are about to be computed, and
+     * report the attendees whose busy times couldn't be retrieved.
+     * 
+     * @param failedAttendees The attendees whose busy times couldn't be
+     *          retrieved.
+     */
+    public synchronized void close(List<Attendee> failedAttendees) {
+      closed = true;
+      if (!failedAttendees.isEmpty())
+        listener.onFailedAttendees(failedAttendees);
+    }
 
-  /**
-   * Filter the meetings which length are less than {@code length}.
-   * 
-   * @param meetings The meetings to filter.
-   * @param length The minimum length of the meetings.
-   */
-  private void filterMeetingLength(List<AvailableMeetingTime> meetings, int length) {
-    for (int i = 0; i < meetings.size();) {
-      int meetingLength = getMeetingLength(meetings.get(i));
-
-      if (meetingLength >= length)
-        ++i;
-      else
-        meetings.remove(i);
+    /**
+     * Schedule a publication at the end of the interval following the last
+     * one. Must be called under the lock.
+     */
+    private void schedule() {
+      long delay = lastPublication + PROVISIONAL_INTERVAL - System.currentTimeMillis();
+
+      scheduled = true;
+      PROVISIONAL_EXECUTOR.schedule(new Runnable() {
+        public void run() {
+          publish();
+        }
+      }, Math.max(delay, 0), TimeUnit.MILLISECONDS);
     }
-  }
 
-  /**
-   * Compute the length of the {@code meeting} in minutes.
-   * 
-   * @param meeting The meeting from which to compute the length.
-   * @return The length of the meeting in minutes.
-   */
-  private int getMeetingLength(AvailableMeetingTime meeting) {
-    long difference = meeting.end.getTime() - meeting.start.getTime();
+    /**
+     * Compute and publish the meeting times of the attendees retrieved so far,
+     * on the provisional thread.
+     */
+    private void publish() {
+      List<TimeIntervals> newBusyTimes;
+
+      synchronized (this) {
+        if (closed)
+          return;
+        newBusyTimes = new ArrayList<TimeIntervals>(busyTimes.subList(added, busyTimes.size()));
+        added = busyTimes.size();
+      }
+
+      for (TimeIntervals attendeeBusyTimes : newBusyTimes) {
+        engine.addBusyTimes(attendeeBusyTimes);
+      }
+
+      Map<Integer, List<AvailableMeetingTime>> result = engine.getAvailableMeetingTimes(
+          startDate, Settings.getInstance(), meetingLengths);
+
+      for (List<AvailableMeetingTime> meetings : result.values()) {
+        addAttendees(meetings, attendees);
+      }
+
+      // Publish under the lock so nothing is published once closed, i.e
+      // after the final meeting times.
+      synchronized (this) {
+        scheduled = false;
+        lastPublication = System.currentTimeMillis();
+        if (!closed) {
+          listener.onAvailableMeetingTimes(result, attendees.size() - added);
+          // Publish the attendees retrieved while computing this publication.
+          if (added < busyTimes.size() && busyTimes.size() < attendees.size())
+            schedule();
+        }
+      }
+    }
 
-    return (int) difference / 60000;
   }
 
 }
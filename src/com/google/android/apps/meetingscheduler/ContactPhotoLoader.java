@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.util.Log;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the photos of the contacts into the rows of a list in the background.
+ * The photos are downsampled to the size of the row while decoded and kept in
+ * a least recently used cache bounded by the memory of the bitmaps, and the
+ * load of a photo is cancelled when its row is recycled for another contact.
+ *
+ * Must be created and used from the UI thread.
+ */
+public class ContactPhotoLoader {
+
+  /** Default share of the heap the cached bitmaps may use. */
+  private static final int DEFAULT_HEAP_SHARE = 16;
+
+  private final ContentResolver resolver;
+
+  /** Maximum number of bytes of the cached bitmaps. */
+  private final int maxCacheBytes;
+
+  /** Posts the decoded bitmaps to the UI thread. */
+  private final Handler handler = new Handler();
+
+  /** The thread decoding the photos. */
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  /** The decoded bitmaps, mapped by URI and size, least recently used first. */
+  private final LinkedHashMap<String, Bitmap> cache = new LinkedHashMap<String, Bitmap>(16,
+      0.75f, true);
+
+  /** Number of bytes of the cached bitmaps. */
+  private int cacheBytes;
+
+  /** The keys of the photos which couldn't be decoded. */
+  private final Set<String> missingPhotos = new HashSet<String>();
+
+  /**
+   * The pending loads, mapped by the view they are loaded into. The loads only
+   * hold a weak reference to their view so a discarded view drops its entry.
+   */
+  private final Map<ImageView, Load> loads = new WeakHashMap<ImageView, Load>();
+
+  /**
+   * Constructor.
+   *
+   * @param resolver The resolver from which to read the photos.
+   */
+  public ContactPhotoLoader(ContentResolver resolver) {
+    this(resolver, (int) (Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_SHARE));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param resolver The resolver from which to read the photos.
+   * @param maxCacheBytes Maximum number of bytes of the cached bitmaps.
+   */
+  public ContactPhotoLoader(ContentResolver resolver, int maxCacheBytes) {
+    this.resolver = resolver;
+    this.maxCacheBytes = maxCacheBytes;
+  }
+
+  /**
+   * Show a photo in a view, right away if it is cached, otherwise showing the
+   * placeholder until it is loaded. The pending load of another photo into
+   * the view is cancelled.
+   *
+   * @param view The view in which to show the photo.
+   * @param photoUri The URI of the photo, or null to show the placeholder.
+   * @param size The size of the view in pixels, the photo being downsampled to
+   *          fit in it.
+   * @param placeholder The resource ID of the image shown without the photo.
+   */
+  public void load(ImageView view, String photoUri, int size, int placeholder) {
+    String key = photoUri + "@" + size;
+    Load pending = loads.get(view);
+
+    if (pending != null) {
+      if (pending.key.equals(key))
+        return;
+      pending.cancel();
+      loads.remove(view);
+    }
+
+    Bitmap bitmap = photoUri != null ? cache.get(key) : null;
+
+    if (bitmap != null) {
+      view.setImageBitmap(bitmap);
+      return;
+    }
+    view.setImageResource(placeholder);
+    if (photoUri == null || missingPhotos.contains(key))
+      return;
+
+    Load load = new Load(view, key, Uri.parse(photoUri), size);
+
+    loads.put(view, load);
+    load.future = executor.submit(load);
+  }
+
+  /**
+   * Stop loading the photos and drop the cached ones. The loader can't be
+   * used anymore.
+   */
+  public void cancel() {
+    executor.shutdownNow();
+    loads.clear();
+    cache.clear();
+    cacheBytes = 0;
+  }
+
+  /**
+   * Show a decoded photo if its view still wants it, and cache it.
+   *
+   * @param load The load of the photo.
+   * @param bitmap The decoded photo, or null if it couldn't be decoded.
+   * @param missing Whether the photo can't be decoded, as opposed to having
+   *          failed for lack of memory, in which case it is tried again on the
+   *          next load.
+   */
+  private void onLoaded(Load load, Bitmap bitmap, boolean missing) {
+    if (executor.isShutdown())
+      return;
+    if (bitmap != null) {
+      put(load.key, bitmap);
+    } else if (missing) {
+      missingPhotos.add(load.key);
+    }
+
+    ImageView view = load.view.get();
+
+    if (view != null && loads.get(view) == load) {
+      loads.remove(view);
+      if (bitmap != null)
+        view.setImageBitmap(bitmap);
+    }
+  }
+
+  /**
+   * Cache a bitmap, dropping the least recently used ones beyond the maximum
+   * size of the cache.
+   */
+  private void put(String key, Bitmap bitmap) {
+    Bitmap previous = cache.put(key, bitmap);
+
+    if (previous != null)
+      cacheBytes -= getBytes(previous);
+    cacheBytes += getBytes(bitmap);
+
+    Iterator<Bitmap> bitmaps = cache.values().iterator();
+
+    while (cacheBytes > maxCacheBytes && bitmaps.hasNext()) {
+      Bitmap eldest = bitmaps.next();
+
+      // Never drop the bitmap just added.
+      if (eldest == bitmap)
+        break;
+      cacheBytes -= getBytes(eldest);
+      bitmaps.remove();
+    }
+  }
+
+  private static int getBytes(Bitmap bitmap) {
+    return bitmap.getRowBytes() * bitmap.getHeight();
+  }
+
+  /**
+   * Decode a photo downsampled to fit in a square.
+   *
+   * @param photoUri The URI of the photo.
+   * @param size The size of the square in pixels, or 0 not to downsample.
+   * @return The decoded photo, or null if it couldn't be decoded.
+   */
+  private Bitmap decode(Uri photoUri, int size) throws IOException {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    int sampleSize = 1;
+
+    // Read the dimensions first to skip the pixels not needed.
+    options.inJustDecodeBounds = true;
+    decode(photoUri, options);
+    if (options.outWidth <= 0 || options.outHeight <= 0)
+      return null;
+    while (size > 0 && options.outWidth / (sampleSize * 2) >= size
+        && options.outHeight / (sampleSize * 2) >= size) {
+      sampleSize *= 2;
+    }
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = sampleSize;
+
+    Bitmap bitmap = decode(photoUri, options);
+
+    if (bitmap == null || size <= 0 || Math.max(bitmap.getWidth(), bitmap.getHeight()) <= size)
+      return bitmap;
+
+    // Scale down what the sampling left to the size of the view.
+    float scale = (float) size / Math.max(bitmap.getWidth(), bitmap.getHeight());
+    Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth()
+        * scale)), Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+
+    if (scaled != bitmap)
+      bitmap.recycle();
+    return scaled;
+  }
+
+  private Bitmap decode(Uri photoUri, BitmapFactory.Options options) throws IOException {
+    InputStream input = resolver.openInputStream(photoUri);
+
+    if (input == null)
+      return null;
+    try {
+      return BitmapFactory.decodeStream(input, null, options);
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * The load of a photo into a view.
+   */
+  private class Load implements Runnable {
+
+    private final WeakReference<ImageView> view;
+    private final String key;
+    private final Uri photoUri;
+    private final int size;
+
+    /** The pending decoding, set once submitted. */
+    private Future<?> future;
+
+    /** Whether the view no longer wants the photo. */
+    private volatile boolean cancelled;
+
+    public Load(ImageView view, String key, Uri photoUri, int size) {
+      this.view = new WeakReference<ImageView>(view);
+      this.key = key;
+      this.photoUri = photoUri;
+      this.size = size;
+    }
+
+    public void cancel() {
+      cancelled = true;
+      if (future != null)
+        future.cancel(false);
+    }
+
+    public void run() {
+      if (cancelled)
+        return;
+
+      Bitmap bitmap = null;
+      boolean missing = false;
+
+      try {
+        bitmap = decode(photoUri, size);
+        missing = bitmap == null;
+      } catch (IOException e) {
+        // The contact has no photo anymore.
+        missing = true;
+      } catch (OutOfMemoryError e) {
+        Log.e(MeetingSchedulerConstants.TAG, "Not enough memory to decode " + photoUri);
+      }
+
+      final Bitmap result = bitmap;
+      final boolean resultMissing = missing;
+
+      handler.post(new Runnable() {
+        public void run() {
+          onLoaded(Load.this, result, resultMissing);
+        }
+      });
+    }
+
+  }
+
+}
@@ -25,6 +25,7 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.TimeZone;
 
 /**
  * TODO(alainv) Write type description
@@ -34,6 +35,9 @@ import java.util.List;
  */
 public class DateUtils {
 
+  /** Number of milliseconds in a day. */
+  private static final long DAY = 24 * 60 * 60 * 1000;
+
   /**
    * Sort the busy times by start time.
    * 
@@ -76,13 +80,24 @@ public class DateUtils {
    * @return True if {@code lhs} and {@code rhs} are on the same day.
    */
   public static boolean isSameDay(Date lhs, Date rhs) {
-    Calendar clhs = new GregorianCalendar(CalendarServiceManager.getInstance().getTimeZone());
-    Calendar crhs = new GregorianCalendar(CalendarServiceManager.getInstance().getTimeZone());
+    TimeZone timeZone = CalendarServiceManager.getInstance().getTimeZone();
+
+    return getLocalDay(lhs.getTime(), timeZone) == getLocalDay(rhs.getTime(), timeZone);
+  }
+
+  /**
+   * Returns the number of days between the epoch and the local day of
+   * {@code time} in {@code timeZone}, without creating a Calendar.
+   * 
+   * @param time The time in milliseconds since epoch
+   * @param timeZone The time zone of the day
+   * @return The local day of {@code time}
+   */
+  public static long getLocalDay(long time, TimeZone timeZone) {
+    long localTime = time + timeZone.getOffset(time);
+    long day = localTime / DAY;
 
-    clhs.setTime(lhs);
-    crhs.setTime(rhs);
-    return clhs.get(Calendar.DAY_OF_YEAR) == crhs.get(Calendar.DAY_OF_YEAR)
-        && clhs.get(Calendar.YEAR) == crhs.get(Calendar.YEAR);
+    return localTime < 0 && localTime % DAY != 0 ? day - 1 : day;
   }
 
   /**
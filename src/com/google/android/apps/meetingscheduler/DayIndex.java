@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Table of the local midnights of a time zone, as milliseconds since epoch,
+ * over a range of days. Days are numbered from 0 for the first day of the
+ * table and finding the day of a time is a binary search, so day computations
+ * don't need a Calendar. Days are 23 or 25 hours long on daylight saving time
+ * changes. The table is extended on demand when a time outside of it is
+ * looked up.
+ */
+public class DayIndex {
+
+  /** Number of milliseconds in an hour. */
+  private static final long HOUR = 60 * 60 * 1000;
+
+  /** Number of milliseconds in a day. */
+  private static final long DAY = 24 * HOUR;
+
+  /** The time zone of the days. */
+  private final TimeZone timeZone;
+
+  /** Calendar used only to compute the midnights when extending the table. */
+  private final Calendar calendar;
+
+  /**
+   * The midnights, day {@code i} starts at
+   * {@code midnights[offset + i - firstDay]}. The array has spare room at both
+   * ends so the table grows by doubling in either direction.
+   */
+  private long[] midnights;
+
+  /** The index of the midnight of the first day in {@link #midnights}. */
+  private int offset;
+
+  /** The number of days in the table, i.e the number of midnights minus 1. */
+  private int dayCount;
+
+  /** The number of the first day of the table. */
+  private int firstDay;
+
+  /**
+   * Constructor.
+   *
+   * @param timeZone The time zone of the days.
+   * @param time A time of day 0.
+   * @param dayCount The number of days to compute from day 0.
+   */
+  public DayIndex(TimeZone timeZone, long time, int dayCount) {
+    this.timeZone = timeZone;
+    this.calendar = new GregorianCalendar(timeZone);
+    this.midnights = new long[Math.max(dayCount, 1) + 1];
+
+    calendar.setTimeInMillis(time);
+    DateUtils.setTime(calendar, 0, 0, 0, 0);
+    midnights[0] = calendar.getTimeInMillis();
+    while (this.dayCount < Math.max(dayCount, 1)) {
+      extendForward();
+    }
+  }
+
+  /**
+   * @param time The time, in milliseconds since epoch.
+   * @return The number of the day containing {@code time}.
+   */
+  public int getDay(long time) {
+    while (time < midnights[offset]) {
+      extendBackward();
+    }
+    while (time >= midnights[offset + dayCount]) {
+      extendForward();
+    }
+
+    int index = Arrays.binarySearch(midnights, offset, offset + dayCount + 1, time);
+
+    return firstDay - offset + (index >= 0 ? index : -index - 2);
+  }
+
+  /**
+   * @param lhs A time, in milliseconds since epoch.
+   * @param rhs Another time, in milliseconds since epoch.
+   * @return True if both times are on the same day.
+   */
+  public boolean isSameDay(long lhs, long rhs) {
+    return getDay(lhs) == getDay(rhs);
+  }
+
+  /**
+   * @param day The number of the day.
+   * @return The local midnight starting the day.
+   */
+  public long getDayStart(int day) {
+    ensureDay(day);
+    return midnights[offset + day - firstDay];
+  }
+
+  /**
+   * @param day The number of the day.
+   * @return The local midnight ending the day, i.e the start of the next day.
+   */
+  public long getDayEnd(int day) {
+    ensureDay(day);
+    return midnights[offset + day - firstDay + 1];
+  }
+
+  /**
+   * @param day The number of the day.
+   * @return The Calendar.DAY_OF_WEEK of the day.
+   */
+  public int getDayOfWeek(int day) {
+    long midnight = getDayStart(day);
+    long epochDay = floor(midnight + timeZone.getOffset(midnight), DAY) / DAY;
+
+    // The epoch is a Thursday.
+    return (int) ((epochDay + 4) % 7 + 7) % 7 + Calendar.SUNDAY;
+  }
+
+  /**
+   * Returns the time of a day at a given local time of day, e.g 9:00 is 9 hours
+   * after midnight except on daylight saving time changes.
+   *
+   * @param day The number of the day.
+   * @param millisOfDay The local time of day in milliseconds.
+   * @return The time, in milliseconds since epoch.
+   */
+  public long getTime(int day, long millisOfDay) {
+    long midnight = getDayStart(day);
+    long offset = timeZone.getOffset(midnight);
+    long localTime = floor(midnight + offset, DAY) + millisOfDay;
+
+    // Adjust the offset in case it changes during the day.
+    return localTime - timeZone.getOffset(localTime - offset);
+  }
+
+  /**
+   * @param time The time, in milliseconds since epoch.
+   * @return The local time of day of {@code time} in milliseconds.
+   */
+  public long getMillisOfDay(long time) {
+    long localTime = time + timeZone.getOffset(time);
+
+    return localTime - floor(localTime, DAY);
+  }
+
+  /**
+   * @param time The time, in milliseconds since epoch.
+   * @param days The number of days to add.
+   * @return The time at the same local time of day {@code days} days later.
+   */
+  public long addDays(long time, int days) {
+    return getTime(getDay(time) + days, getMillisOfDay(time));
+  }
+
+  /**
+   * @return The greatest multiple of {@code unit} less than or equal to
+   *         {@code value}.
+   */
+  private static long floor(long value, long unit) {
+    long remainder = value % unit;
+
+    return remainder < 0 ? value - remainder - unit : value - remainder;
+  }
+
+  /**
+   * Make sure the table contains {@code day}.
+   */
+  private void ensureDay(int day) {
+    while (day < firstDay) {
+      extendBackward();
+    }
+    while (day >= firstDay + dayCount) {
+      extendForward();
+    }
+  }
+
+  /**
+   * Add the day following the last day of the table.
+   */
+  private void extendForward() {
+    if (offset + dayCount + 1 == midnights.length)
+      grow(offset, midnights.length * 2);
+
+    // The added day is 23 to 25 hours long, so 36 hours after its start is in
+    // the middle of the day after it.
+    calendar.setTimeInMillis(midnights[offset + dayCount] + 36 * HOUR);
+    DateUtils.setTime(calendar, 0, 0, 0, 0);
+    midnights[offset + ++dayCount] = calendar.getTimeInMillis();
+  }
+
+  /**
+   * Add the day preceding the first day of the table.
+   */
+  private void extendBackward() {
+    if (offset == 0)
+      grow(midnights.length, midnights.length * 2);
+
+    // 12 hours before the first midnight is in the middle of the added day.
+    calendar.setTimeInMillis(midnights[offset] - 12 * HOUR);
+    DateUtils.setTime(calendar, 0, 0, 0, 0);
+    midnights[--offset] = calendar.getTimeInMillis();
+    ++dayCount;
+    --firstDay;
+  }
+
+  /**
+   * Move the midnights to a new array of {@code length} elements, the first
+   * one at {@code newOffset}.
+   */
+  private void grow(int newOffset, int length) {
+    long[] result = new long[length];
+
+    System.arraycopy(midnights, offset, result, newOffset, dayCount + 1);
+    midnights = result;
+    offset = newOffset;
+  }
+
+}
@@ -57,6 +57,9 @@ public class EventExpandableListAdapter extends BaseExpandableListAdapter {
   /** The sorted list of Days with AvailableMeetingTime in them */
   private List<Date> sortedDays;
 
+  /** The local days in which the meeting times are grouped */
+  private DayIndex days;
+
   /** Inflater used to create Views from layouts */
   private LayoutInflater inflater;
 
@@ -74,7 +77,10 @@ public class EventExpandableListAdapter extends BaseExpandableListAdapter {
       List<AvailableMeetingTime> availableMeetingTimes, int meetingLength) {
     this.activity = activity;
 
-    sortedEventsByDays = sortEventsByDay(availableMeetingTimes);
+    days = new DayIndex(CalendarServiceManager.getInstance().getTimeZone(),
+        System.currentTimeMillis(), 1);
+    sortedEventsByDays = new HashMap<Date, List<AvailableMeetingTime>>();
+    sortEventsByDay(availableMeetingTimes);
     sortedDays = asSortedList(sortedEventsByDays.keySet());
 
     inflater = LayoutInflater.from(activity);
@@ -82,6 +88,31 @@ public class EventExpandableListAdapter extends BaseExpandableListAdapter {
     this.meetingLength = meetingLength;
   }
 
+  /**
+   * Adds meeting times to the ones already displayed and refreshes the list.
+   * 
+   * @param availableMeetingTimes The times to add
+   */
+  public void addAvailableMeetingTimes(List<AvailableMeetingTime> availableMeetingTimes) {
+    sortEventsByDay(availableMeetingTimes);
+    sortedDays = asSortedList(sortedEventsByDays.keySet());
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Replaces the displayed meeting times, e.g by the ones of another meeting
+   * length, and refreshes the list.
+   * 
+   * @param availableMeetingTimes The times to display
+   * @param meetingLength The length of the meeting
+   */
+  public void setAvailableMeetingTimes(List<AvailableMeetingTime> availableMeetingTimes,
+      int meetingLength) {
+    this.meetingLength = meetingLength;
+    sortedEventsByDays.clear();
+    addAvailableMeetingTimes(availableMeetingTimes);
+  }
+
   /**
    * Sorts a Collection and returns it as a Sorted List.
    * 
@@ -96,25 +127,14 @@ public class EventExpandableListAdapter extends BaseExpandableListAdapter {
 
   /**
    * Parses the lit of AvailableMeetingTime to map then by day they take place
-   * in the current time zone.
+   * in the current time zone, adding them to {@link #sortedEventsByDays}.
    * 
    * @param availableMeetingTimes The list of AvailableMeetingTime
-   * @return lists of AvailableMeetingTime mapped by day they take place
    */
-  private Map<Date, List<AvailableMeetingTime>> sortEventsByDay(
-      List<AvailableMeetingTime> availableMeetingTimes) {
-    Map<Date, List<AvailableMeetingTime>> sortedEventsByDays = new HashMap<Date, List<AvailableMeetingTime>>();
-
+  private void sortEventsByDay(List<AvailableMeetingTime> availableMeetingTimes) {
     for (AvailableMeetingTime availableMeetingTime : availableMeetingTimes) {
-      GregorianCalendar calendar = new GregorianCalendar(CalendarServiceManager.getInstance()
-          .getTimeZone());
-      calendar.setTime(availableMeetingTime.start);
-      calendar.set(Calendar.HOUR_OF_DAY, 0);
-      calendar.clear(Calendar.HOUR);
-      calendar.clear(Calendar.MINUTE);
-      calendar.clear(Calendar.SECOND);
-      calendar.clear(Calendar.MILLISECOND);
-      Date day = calendar.getTime();
+      long start = availableMeetingTime.start.getTime();
+      Date day = new Date(days.getDayStart(days.getDay(start)));
 
       List<AvailableMeetingTime> meetingTimes = sortedEventsByDays.get(day);
       if (meetingTimes == null) {
@@ -123,7 +143,6 @@ public class EventExpandableListAdapter extends BaseExpandableListAdapter {
       }
       meetingTimes.add(availableMeetingTime);
     }
-    return sortedEventsByDays;
   }
 
   public AvailableMeetingTime getChild(int groupPosition, int childPosition) {
@@ -19,7 +19,9 @@ package com.google.android.apps.meetingscheduler;
 import android.content.Context;
 
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Allows the retrieval of available meeting times.
@@ -40,4 +42,91 @@ public interface EventTimeRetriever {
    */
   public List<AvailableMeetingTime> getAvailableMeetingTime(
       List<Attendee> attendees, Date startDate, Context context);
+
+  /**
+   * Returns the available meeting times where all the given attendees are
+   * free for each of the given meeting lengths, so the displayed length can be
+   * changed without retrieving the busy times again.
+   * 
+   * @param attendees The list of attendees for which we want to find meeting
+   *          times
+   * @param meetingLengths The lengths of the meetings in minutes
+   * @param startDate the date from which to start querying available meeting
+   *          times.
+   * @return The lists of available meeting times mapped by meeting length
+   */
+  public Map<Integer, List<AvailableMeetingTime>> getAvailableMeetingTimeByLength(
+      List<Attendee> attendees, int[] meetingLengths, Date startDate, Context context);
+
+  /**
+   * Returns the available meeting times where all the given attendees are
+   * free for each of the given meeting lengths, computed lazily one day at a
+   * time as the iterator is advanced so that the first days can be displayed
+   * before the following ones are computed. The busy times are retrieved
+   * before this method returns.
+   * 
+   * @param attendees The list of attendees for which we want to find meeting
+   *          times
+   * @param meetingLengths The lengths of the meetings in minutes
+   * @param startDate the date from which to start querying available meeting
+   *          times.
+   * @return An iterator over the days having available meeting times, in time
+   *         order, returning the meeting times of a day mapped by meeting
+   *         length
+   */
+  public Iterator<Map<Integer, List<AvailableMeetingTime>>> getAvailableMeetingTimeIterator(
+      List<Attendee> attendees, int[] meetingLengths, Date startDate, Context context);
+
+  /**
+   * Same as
+   * {@link #getAvailableMeetingTimeIterator(List, int[], Date, Context)} but
+   * also publishes provisional meeting times to {@code listener} while the
+   * busy times of the attendees are being retrieved, computed from the
+   * attendees retrieved so far.
+   * 
+   * @param attendees The list of attendees for which we want to find meeting
+   *          times
+   * @param meetingLengths The lengths of the meetings in minutes
+   * @param startDate the date from which to start querying available meeting
+   *          times.
+   * @param listener The listener to which to publish the provisional meeting
+   *          times
+   * @return An iterator over the days having available meeting times, in time
+   *         order, returning the meeting times of a day mapped by meeting
+   *         length
+   */
+  public Iterator<Map<Integer, List<AvailableMeetingTime>>> getAvailableMeetingTimeIterator(
+      List<Attendee> attendees, int[] meetingLengths, Date startDate, Context context,
+      AvailableMeetingTimesListener listener);
+
+  /**
+   * Returns the list of meeting times where at least {@code minAttendees} of
+   * the given attendees are free. The attendees of each meeting time are the
+   * free ones and its missing attendees are the busy ones.
+   * 
+   * @param attendees The list of attendees for which we want to find meeting
+   *          times
+   * @param minAttendees The minimum number of free attendees
+   * @param startDate the date from which to start querying available meeting
+   *          times.
+   * @return The list of available meeting times
+   */
+  public List<AvailableMeetingTime> getQuorumMeetingTime(
+      List<Attendee> attendees, int minAttendees, Date startDate, Context context);
+
+  /**
+   * Returns the {@code count} best available meeting times where all the given
+   * attendees are free, according to {@code scorer}.
+   * 
+   * @param attendees The list of attendees for which we want to find meeting
+   *          times
+   * @param startDate the date from which to start querying available meeting
+   *          times.
+   * @param count The maximum number of meeting times to return
+   * @param scorer The scorer ranking the meeting times
+   * @return The list of available meeting times, best first
+   */
+  public List<AvailableMeetingTime> getBestMeetingTime(
+      List<Attendee> attendees, Date startDate, int count, MeetingTimeScorer scorer,
+      Context context);
 }
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * On-device cache of the busy times of the attendees, stored in SQLite by
+ * attendee email and day. A day is identified by the time of its local
+ * midnight and remembers when it was fetched, so the days fetched less than
+ * the time to live ago don't need to be fetched again. The busy times are
+ * clipped to the day in which they are stored, and the days of an attendee are
+ * stored together in a single row encoded by the {@link BusyTimesCodec}.
+ */
+public class FreeBusyCache extends SQLiteOpenHelper {
+
+  /** Default time to live of the cached days in milliseconds. */
+  public static final long DEFAULT_TTL = 15 * 60 * 1000;
+
+  private static final String DATABASE_NAME = "freebusy_cache.db";
+  private static final int DATABASE_VERSION = 2;
+
+  private static final String DAYS_TABLE = "days";
+  private static final String BUSY_TABLE = "busy";
+  private static final String EMAIL = "email";
+  private static final String DAY = "day";
+  private static final String FETCHED = "fetched";
+  private static final String FIRST_DAY = "first_day";
+  private static final String DATA = "data";
+
+  private static FreeBusyCache instance;
+
+  /** The time to live of the cached days in milliseconds. */
+  private final long ttl;
+
+  /**
+   * Constructor.
+   *
+   * @param context The application context.
+   * @param ttl The time to live of the cached days in milliseconds.
+   */
+  public FreeBusyCache(Context context, long ttl) {
+    super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    this.ttl = ttl;
+  }
+
+  /**
+   * @param context The application context.
+   * @return The cache shared by the application, with the default time to
+   *         live.
+   */
+  public static synchronized FreeBusyCache getInstance(Context context) {
+    if (instance == null)
+      instance = new FreeBusyCache(context.getApplicationContext(), DEFAULT_TTL);
+    return instance;
+  }
+
+  @Override
+  public void onCreate(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE " + DAYS_TABLE + " (" + EMAIL + " TEXT NOT NULL, " + DAY
+        + " INTEGER NOT NULL, " + FETCHED + " INTEGER NOT NULL, PRIMARY KEY (" + EMAIL + ", "
+        + DAY + "))");
+    db.execSQL("CREATE TABLE " + BUSY_TABLE + " (" + EMAIL + " TEXT PRIMARY KEY, " + FIRST_DAY
+        + " INTEGER NOT NULL, " + DATA + " BLOB NOT NULL)");
+  }
+
+  @Override
+  public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    // This is only a cache, start from scratch.
+    db.execSQL("DROP TABLE IF EXISTS " + DAYS_TABLE);
+    db.execSQL("DROP TABLE IF EXISTS " + BUSY_TABLE);
+    onCreate(db);
+  }
+
+  /**
+   * Returns the days of an attendee which have been fetched less than the time
+   * to live ago.
+   *
+   * @param email The email of the attendee.
+   * @param firstDay The midnight of the first day to look for.
+   * @param lastDay The midnight of the last day to look for.
+   * @param now The current time.
+   * @return The midnights of the fresh days.
+   */
+  public Set<Long> getFreshDays(String email, long firstDay, long lastDay, long now) {
+    return getDays(email, firstDay, lastDay, now - ttl);
+  }
+
+  /**
+   * Returns the days of an attendee which are in the cache, fresh or not.
+   *
+   * @param email The email of the attendee.
+   * @param firstDay The midnight of the first day to look for.
+   * @param lastDay The midnight of the last day to look for.
+   * @return The midnights of the cached days.
+   */
+  public Set<Long> getCachedDays(String email, long firstDay, long lastDay) {
+    return getDays(email, firstDay, lastDay, 0);
+  }
+
+  /**
+   * @return The midnights of the days of an attendee fetched at or after
+   *         {@code minFetched}.
+   */
+  private synchronized Set<Long> getDays(String email, long firstDay, long lastDay,
+      long minFetched) {
+    Set<Long> result = new HashSet<Long>();
+    Cursor cursor = getReadableDatabase().query(DAYS_TABLE, new String[] { DAY },
+        EMAIL + " = ? AND " + DAY + " >= ? AND " + DAY + " <= ? AND " + FETCHED + " >= ?",
+        new String[] { email, Long.toString(firstDay), Long.toString(lastDay),
+            Long.toString(minFetched) }, null, null, null);
+
+    try {
+      while (cursor.moveToNext()) {
+        result.add(cursor.getLong(0));
+      }
+    } finally {
+      cursor.close();
+    }
+    return result;
+  }
+
+  /**
+   * Returns the cached busy times of an attendee, fresh or not.
+   *
+   * @param email The email of the attendee.
+   * @param firstDay The midnight of the first day to read.
+   * @param lastDay The midnight of the last day to read.
+   * @return The busy times, sorted by start time.
+   */
+  public synchronized TimeIntervals getBusyTimes(String email, long firstDay, long lastDay) {
+    TimeIntervals result = new TimeIntervals();
+    byte[] data = getData(getReadableDatabase(), email);
+
+    if (data != null)
+      BusyTimesCodec.decode(data, firstDay, lastDay, result);
+    return result;
+  }
+
+  /**
+   * Replace the cached busy times of an attendee for a range of days.
+   *
+   * @param email The email of the attendee.
+   * @param busyTimes The busy times fetched for the days, sorted by start time.
+   * @param days The days of the query.
+   * @param firstDay The first day fetched.
+   * @param lastDay The last day fetched.
+   * @param now The time at which the days were fetched.
+   */
+  public synchronized void putBusyTimes(String email, TimeIntervals busyTimes, DayIndex days,
+      int firstDay, int lastDay, long now) {
+    SQLiteDatabase db = getWritableDatabase();
+    SQLiteStatement insertDay = db.compileStatement("INSERT OR REPLACE INTO " + DAYS_TABLE
+        + " (" + EMAIL + ", " + DAY + ", " + FETCHED + ") VALUES (?, ?, ?)");
+    int i = 0;
+
+    db.beginTransaction();
+    try {
+      SortedMap<Long, TimeIntervals> dayBusyTimes = getDayBusyTimes(db, email);
+
+      dayBusyTimes.subMap(days.getDayStart(firstDay), days.getDayStart(lastDay) + 1).clear();
+      for (int day = firstDay; day <= lastDay; ++day) {
+        long dayStart = days.getDayStart(day);
+        long dayEnd = days.getDayEnd(day);
+        TimeIntervals dayBusy = new TimeIntervals();
+
+        insertDay.bindString(1, email);
+        insertDay.bindLong(2, dayStart);
+        insertDay.bindLong(3, now);
+        insertDay.executeInsert();
+
+        i = busyTimes.clip(i, dayStart, dayEnd, dayBusy);
+        dayBusyTimes.put(dayStart, dayBusy);
+      }
+      putDayBusyTimes(db, email, dayBusyTimes);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      insertDay.close();
+    }
+  }
+
+  /**
+   * Remove the days before {@code day} from the cache.
+   *
+   * @param day The midnight of the first day to keep.
+   */
+  public synchronized void deleteDaysBefore(long day) {
+    SQLiteDatabase db = getWritableDatabase();
+    String[] args = new String[] { Long.toString(day) };
+
+    db.beginTransaction();
+    try {
+      db.delete(DAYS_TABLE, DAY + " < ?", args);
+
+      // Only the rows starting before the day need to be encoded again.
+      Cursor cursor = db.query(BUSY_TABLE, new String[] { EMAIL }, FIRST_DAY + " < ?", args,
+          null, null, null);
+      Set<String> emails = new HashSet<String>();
+
+      try {
+        while (cursor.moveToNext()) {
+          emails.add(cursor.getString(0));
+        }
+      } finally {
+        cursor.close();
+      }
+      for (String email : emails) {
+        SortedMap<Long, TimeIntervals> dayBusyTimes = getDayBusyTimes(db, email);
+
+        putDayBusyTimes(db, email, dayBusyTimes.tailMap(day));
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * @return The encoded busy times of an attendee, or null if there are none.
+   */
+  private static byte[] getData(SQLiteDatabase db, String email) {
+    Cursor cursor = db.query(BUSY_TABLE, new String[] { DATA }, EMAIL + " = ?",
+        new String[] { email }, null, null, null);
+
+    try {
+      return cursor.moveToNext() ? cursor.getBlob(0) : null;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * @return The busy times of every cached day of an attendee, mapped by the
+   *         midnight of the day.
+   */
+  private static SortedMap<Long, TimeIntervals> getDayBusyTimes(SQLiteDatabase db,
+      String email) {
+    SortedMap<Long, TimeIntervals> result = new TreeMap<Long, TimeIntervals>();
+    byte[] data = getData(db, email);
+
+    if (data == null)
+      return result;
+
+    long[] dayStarts = BusyTimesCodec.getDayStarts(data);
+    TimeIntervals busyTimes = new TimeIntervals();
+    int i = 0;
+
+    BusyTimesCodec.decode(data, Long.MIN_VALUE, Long.MAX_VALUE, busyTimes);
+    // The busy times are clipped to their day, so they start before the next.
+    for (int day = 0; day < dayStarts.length; ++day) {
+      long nextDayStart = day + 1 < dayStarts.length ? dayStarts[day + 1] : Long.MAX_VALUE;
+      TimeIntervals dayBusyTimes = new TimeIntervals();
+
+      for (; i < busyTimes.size() && busyTimes.getStart(i) < nextDayStart; ++i) {
+        dayBusyTimes.add(busyTimes.getStart(i), busyTimes.getEnd(i));
+      }
+      result.put(dayStarts[day], dayBusyTimes);
+    }
+    return result;
+  }
+
+  /**
+   * Replace the cached busy times of an attendee, deleting the row if there
+   * are no days left.
+   */
+  private static void putDayBusyTimes(SQLiteDatabase db, String email,
+      SortedMap<Long, TimeIntervals> dayBusyTimes) {
+    if (dayBusyTimes.isEmpty()) {
+      db.delete(BUSY_TABLE, EMAIL + " = ?", new String[] { email });
+      return;
+    }
+
+    long[] dayStarts = new long[dayBusyTimes.size()];
+    TimeIntervals[] busyTimes = new TimeIntervals[dayStarts.length];
+    int day = 0;
+    ContentValues values = new ContentValues();
+
+    for (Map.Entry<Long, TimeIntervals> entry : dayBusyTimes.entrySet()) {
+      dayStarts[day] = entry.getKey();
+      busyTimes[day] = entry.getValue();
+      ++day;
+    }
+    values.put(EMAIL, email);
+    values.put(FIRST_DAY, dayStarts[0]);
+    values.put(DATA, BusyTimesCodec.encode(dayStarts, busyTimes));
+    db.replace(BUSY_TABLE, null, values);
+  }
+
+}
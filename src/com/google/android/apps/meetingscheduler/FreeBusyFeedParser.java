@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.util.Log;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.client.xml.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming parser of the freebusy batch feed. The busy times of every entry
+ * are read straight from the XML pull parser into {@link TimeIntervals},
+ * without building the FreeBusy, Busy, When and DateTime objects of the feed
+ * model, and published as soon as the entry ends. Entries whose batch status
+ * isn't a success are skipped.
+ */
+public class FreeBusyFeedParser {
+
+  private static final String ATOM_NAMESPACE = "http://www.w3.org/2005/Atom";
+  private static final String BATCH_NAMESPACE = "http://schemas.google.com/gdata/batch";
+  private static final String GCAL_NAMESPACE = "http://schemas.google.com/gCal/2005";
+  private static final String GD_NAMESPACE = "http://schemas.google.com/g/2005";
+
+  /** Number of milliseconds in a minute. */
+  private static final long MINUTE = 60 * 1000;
+
+  /** Number of milliseconds in a day. */
+  private static final long DAY = 24 * 60 * MINUTE;
+
+  /**
+   * Receives the busy times of the entries as they are parsed.
+   */
+  public interface EntryListener {
+
+    /**
+     * Called when an entry of the feed has been parsed successfully.
+     *
+     * @param batchId The batch ID of the entry.
+     * @param busyTimes The busy times of the entry, in the order of the feed.
+     */
+    public void onEntry(String batchId, TimeIntervals busyTimes);
+
+  }
+
+  private FreeBusyFeedParser() {
+  }
+
+  /**
+   * Parse a freebusy batch feed, publishing every successful entry to
+   * {@code listener} as soon as it has been parsed.
+   *
+   * @param content The content of the feed.
+   * @param listener The listener to which to publish the entries.
+   * @throws IOException If the feed couldn't be read or parsed.
+   */
+  public static void parse(InputStream content, EntryListener listener) throws IOException {
+    try {
+      XmlPullParser parser = Xml.createParser();
+
+      parser.setInput(content, null);
+      for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+        if (event == XmlPullParser.START_TAG && parser.getDepth() == 2
+            && isElement(parser, ATOM_NAMESPACE, "entry"))
+          parseEntry(parser, listener);
+      }
+    } catch (XmlPullParserException e) {
+      throw new IOException("Invalid freebusy feed: " + e.getMessage());
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid time in freebusy feed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Parse an entry of the feed, the parser being on its start tag, and publish
+   * its busy times to {@code listener} if it succeeded.
+   */
+  private static void parseEntry(XmlPullParser parser, EntryListener listener)
+      throws XmlPullParserException, IOException {
+    int depth = parser.getDepth();
+    boolean inBusy = false;
+    String batchId = null;
+    int statusCode = 200;
+    TimeIntervals busyTimes = new TimeIntervals();
+    int event;
+
+    while ((event = parser.next()) != XmlPullParser.END_TAG || parser.getDepth() > depth) {
+      if (event == XmlPullParser.END_DOCUMENT)
+        throw new XmlPullParserException("Unterminated entry");
+      if (event == XmlPullParser.END_TAG) {
+        if (parser.getDepth() == depth + 1 && isElement(parser, GCAL_NAMESPACE, "busy"))
+          inBusy = false;
+      } else if (event == XmlPullParser.START_TAG) {
+        if (parser.getDepth() == depth + 1) {
+          if (isElement(parser, BATCH_NAMESPACE, "id")) {
+            batchId = parser.nextText();
+          } else if (isElement(parser, BATCH_NAMESPACE, "status")) {
+            String code = parser.getAttributeValue(null, "code");
+
+            if (code != null)
+              statusCode = Integer.parseInt(code);
+          } else if (isElement(parser, GCAL_NAMESPACE, "busy")) {
+            inBusy = true;
+          }
+        } else if (inBusy && isElement(parser, GD_NAMESPACE, "when")) {
+          busyTimes.add(parseTime(parser.getAttributeValue(null, "startTime")),
+              parseTime(parser.getAttributeValue(null, "endTime")));
+        }
+      }
+    }
+
+    if (batchId == null) {
+      Log.e(MeetingSchedulerConstants.TAG, "Freebusy entry without batch ID");
+    } else if (statusCode < 200 || statusCode >= 300) {
+      Log.e(MeetingSchedulerConstants.TAG, "Freebusy request failed for " + batchId + ": "
+          + statusCode);
+    } else {
+      listener.onEntry(batchId, busyTimes);
+    }
+  }
+
+  private static boolean isElement(XmlPullParser parser, String namespace, String name) {
+    return name.equals(parser.getName()) && namespace.equals(parser.getNamespace());
+  }
+
+  /**
+   * Parse a RFC 3339 time such as "2010-11-15T22:00:00.000Z" or
+   * "2010-11-15T14:00:00.000-08:00", or a date such as "2010-11-19" of an all
+   * day event as the midnight UTC starting it, arithmetically. Other forms are
+   * left to {@link DateTime#parseRfc3339(String)}, which keeps the fields of
+   * the current time missing from the value, e.g its milliseconds.
+   *
+   * @param value The time to parse.
+   * @return The time in milliseconds since epoch.
+   */
+  static long parseTime(String value) {
+    if (value == null)
+      throw new NumberFormatException("Missing time");
+
+    int length = value.length();
+
+    if (length == 10 && value.charAt(4) == '-' && value.charAt(7) == '-')
+      return getEpochDay(parseDigits(value, 0, 4), parseDigits(value, 5, 7), parseDigits(value,
+          8, 10)) * DAY;
+    if (length < 20 || value.charAt(4) != '-' || value.charAt(7) != '-'
+        || value.charAt(10) != 'T' || value.charAt(13) != ':' || value.charAt(16) != ':')
+      return DateTime.parseRfc3339(value).value;
+
+    long result = getEpochDay(parseDigits(value, 0, 4), parseDigits(value, 5, 7),
+        parseDigits(value, 8, 10)) * DAY;
+    int index = 19;
+
+    result += (parseDigits(value, 11, 13) * 60 + parseDigits(value, 14, 16)) * MINUTE
+        + parseDigits(value, 17, 19) * 1000;
+    if (value.charAt(index) == '.') {
+      int start = ++index;
+      int millis = 0;
+
+      while (index < length && Character.isDigit(value.charAt(index))) {
+        if (index - start < 3)
+          millis = millis * 10 + value.charAt(index) - '0';
+        ++index;
+      }
+      for (int i = index - start; i < 3; ++i) {
+        millis *= 10;
+      }
+      result += millis;
+    }
+
+    if (index == length - 1 && value.charAt(index) == 'Z')
+      return result;
+    if (index != length - 6 || value.charAt(index + 3) != ':')
+      return DateTime.parseRfc3339(value).value;
+
+    long offset = (parseDigits(value, index + 1, index + 3) * 60 + parseDigits(value, index + 4,
+        index + 6)) * MINUTE;
+
+    switch (value.charAt(index)) {
+      case '+':
+        return result - offset;
+      case '-':
+        return result + offset;
+      default:
+        return DateTime.parseRfc3339(value).value;
+    }
+  }
+
+  /**
+   * @return The number of days from 1970-01-01 to the date, in the proleptic
+   *         Gregorian calendar.
+   */
+  private static long getEpochDay(int year, int month, int day) {
+    // Count the years from March so that February 29th is the last day.
+    if (month <= 2)
+      --year;
+
+    int era = (year >= 0 ? year : year - 399) / 400;
+    int yearOfEra = year - era * 400;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+    return era * 146097L + dayOfEra - 719468;
+  }
+
+  /**
+   * @return The decimal number between {@code start} and {@code end}.
+   */
+  private static int parseDigits(String value, int start, int end) {
+    int result = 0;
+
+    for (int i = start; i < end; ++i) {
+      char c = value.charAt(i);
+
+      if (c < '0' || c > '9')
+        throw new NumberFormatException("Invalid time: " + value);
+      result = result * 10 + c - '0';
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Read-only snapshot of the busy times of a whole organization, memory-mapped
+ * from a file built by a {@link Writer}. The busy times are read in place from
+ * the mapped file, so a lookup only allocates the busy times it returns
+ * whatever the number of attendees in the snapshot.
+ *
+ * The file is laid out as follows, the numbers being big endian:
+ *
+ * <pre>
+ * header:
+ *   int magic, int version
+ *   long creation time, long first day, long last day
+ *   int attendee count, int index offset
+ * records, for each attendee:
+ *   short email length, email in UTF-8
+ *   busy times encoded by the {@link BusyTimesCodec}
+ * index, sorted by hash:
+ *   long hash of the email, int record offset
+ * </pre>
+ */
+public class FreeBusySnapshot {
+
+  /** Name of the snapshot file in the application files directory. */
+  public static final String FILE_NAME = "freebusy_snapshot.bin";
+
+  private static final int MAGIC = 0x46425350;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 40;
+  private static final int INDEX_ENTRY_SIZE = 12;
+
+  /** The mapped file, only read with absolute gets so it can be shared. */
+  private final ByteBuffer buffer;
+
+  private final long created;
+  private final long firstDay;
+  private final long lastDay;
+  private final int attendeeCount;
+  private final int indexOffset;
+
+  private FreeBusySnapshot(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != VERSION)
+      throw new IOException("Invalid freebusy snapshot");
+    created = buffer.getLong(8);
+    firstDay = buffer.getLong(16);
+    lastDay = buffer.getLong(24);
+    attendeeCount = buffer.getInt(32);
+    indexOffset = buffer.getInt(36);
+    if (indexOffset < HEADER_SIZE
+        || indexOffset + (long) attendeeCount * INDEX_ENTRY_SIZE > buffer.capacity())
+      throw new IOException("Truncated freebusy snapshot");
+  }
+
+  /**
+   * Map a snapshot file in memory.
+   *
+   * @param file The snapshot file.
+   * @return The snapshot.
+   * @throws IOException If the file couldn't be mapped or isn't a snapshot.
+   */
+  public static FreeBusySnapshot open(File file) throws IOException {
+    FileInputStream input = new FileInputStream(file);
+
+    try {
+      FileChannel channel = input.getChannel();
+
+      // The mapping stays valid once the channel is closed.
+      return new FreeBusySnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * @return The time at which the snapshot was built.
+   */
+  public long getCreated() {
+    return created;
+  }
+
+  /**
+   * @return The midnight of the first day of the snapshot.
+   */
+  public long getFirstDay() {
+    return firstDay;
+  }
+
+  /**
+   * @return The midnight of the last day of the snapshot.
+   */
+  public long getLastDay() {
+    return lastDay;
+  }
+
+  /**
+   * @return The number of attendees in the snapshot.
+   */
+  public int getAttendeeCount() {
+    return attendeeCount;
+  }
+
+  /**
+   * Read the busy times of an attendee for a range of days.
+   *
+   * @param email The email of the attendee.
+   * @param firstDay The midnight of the first day to read.
+   * @param lastDay The midnight of the last day to read.
+   * @param result The intervals to which to add the busy times.
+   * @return True if the attendee is in the snapshot.
+   */
+  public boolean getBusyTimes(String email, long firstDay, long lastDay, TimeIntervals result) {
+    byte[] key = getKey(email);
+    long hash = hash(key);
+    int low = 0;
+    int high = attendeeCount;
+
+    // Find the first entry with the hash, then check the emails of the
+    // entries sharing it.
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+
+      if (buffer.getLong(indexOffset + middle * INDEX_ENTRY_SIZE) < hash)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    for (int entry = low; entry < attendeeCount
+        && buffer.getLong(indexOffset + entry * INDEX_ENTRY_SIZE) == hash; ++entry) {
+      int record = buffer.getInt(indexOffset + entry * INDEX_ENTRY_SIZE + 8);
+
+      if (isEmail(record, key)) {
+        BusyTimesCodec.decode(buffer, record + 2 + key.length, firstDay, lastDay, result);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return True if the record at {@code offset} is the one of the email.
+   */
+  private boolean isEmail(int offset, byte[] key) {
+    if (buffer.getShort(offset) != key.length)
+      return false;
+    for (int i = 0; i < key.length; ++i) {
+      if (buffer.get(offset + 2 + i) != key[i])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return The email lower-cased independently of the default locale, in
+   *         UTF-8.
+   */
+  private static byte[] getKey(String email) {
+    try {
+      return email.toLowerCase(Locale.US).getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      // Every platform supports UTF-8.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return The 64 bit FNV-1a hash of the key.
+   */
+  private static long hash(byte[] key) {
+    long result = 0xcbf29ce484222325L;
+
+    for (byte b : key) {
+      result ^= b & 0xFF;
+      result *= 0x100000001b3L;
+    }
+    return result;
+  }
+
+  /**
+   * Builds a snapshot file, writing the busy times of the attendees as they
+   * are added to a temporary file which replaces the snapshot file once
+   * committed, so the current snapshot can still be read meanwhile.
+   */
+  public static class Writer {
+
+    private final File file;
+    private final File tempFile;
+    private final long firstDay;
+    private final long lastDay;
+    private final DataOutputStream output;
+
+    /** The hashes of the emails of the records written so far. */
+    private long[] hashes = new long[64];
+
+    /** The offsets of the records written so far. */
+    private int[] offsets = new int[64];
+
+    private int attendeeCount;
+
+    /**
+     * Constructor.
+     *
+     * @param file The snapshot file to build.
+     * @param firstDay The midnight of the first day of the snapshot.
+     * @param lastDay The midnight of the last day of the snapshot.
+     * @throws IOException If the temporary file couldn't be created.
+     */
+    public Writer(File file, long firstDay, long lastDay) throws IOException {
+      this.file = file;
+      this.tempFile = new File(file.getPath() + ".tmp");
+      this.firstDay = firstDay;
+      this.lastDay = lastDay;
+      this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      output.write(new byte[HEADER_SIZE]);
+    }
+
+    /**
+     * Add the busy times of an attendee. May be called from several threads.
+     *
+     * @param email The email of the attendee.
+     * @param dayStarts The midnights of the days, in increasing order.
+     * @param dayBusyTimes The busy times of every day, sorted by start time
+     *          and clipped to the day.
+     * @throws IOException If the busy times couldn't be written.
+     */
+    public void add(String email, long[] dayStarts, TimeIntervals[] dayBusyTimes)
+        throws IOException {
+      byte[] key = getKey(email);
+      byte[] data = BusyTimesCodec.encode(dayStarts, dayBusyTimes);
+
+      synchronized (this) {
+        if (attendeeCount == hashes.length) {
+          long[] newHashes = new long[attendeeCount * 2];
+          int[] newOffsets = new int[attendeeCount * 2];
+
+          System.arraycopy(hashes, 0, newHashes, 0, attendeeCount);
+          System.arraycopy(offsets, 0, newOffsets, 0, attendeeCount);
+          hashes = newHashes;
+          offsets = newOffsets;
+        }
+        hashes[attendeeCount] = hash(key);
+        offsets[attendeeCount] = output.size();
+        ++attendeeCount;
+
+        output.writeShort(key.length);
+        output.write(key);
+        output.write(data);
+      }
+    }
+
+    /**
+     * Write the index and the header and replace the snapshot file.
+     *
+     * @throws IOException If the snapshot couldn't be written.
+     */
+    public synchronized void commit() throws IOException {
+      int indexOffset = output.size();
+
+      // Sort the record numbers by hash.
+      Integer[] order = new Integer[attendeeCount];
+
+      for (int i = 0; i < attendeeCount; ++i) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        public int compare(Integer lhs, Integer rhs) {
+          long lhsHash = hashes[lhs];
+          long rhsHash = hashes[rhs];
+
+          return lhsHash < rhsHash ? -1 : (lhsHash == rhsHash ? 0 : 1);
+        }
+      });
+      for (int i = 0; i < attendeeCount; ++i) {
+        output.writeLong(hashes[order[i]]);
+        output.writeInt(offsets[order[i]]);
+      }
+      output.close();
+
+      RandomAccessFile header = new RandomAccessFile(tempFile, "rw");
+
+      try {
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeLong(System.currentTimeMillis());
+        header.writeLong(firstDay);
+        header.writeLong(lastDay);
+        header.writeInt(attendeeCount);
+        header.writeInt(indexOffset);
+        header.getFD().sync();
+      } finally {
+        header.close();
+      }
+      if (!tempFile.renameTo(file))
+        throw new IOException("Couldn't replace the freebusy snapshot");
+    }
+
+    /**
+     * Drop the snapshot being built.
+     */
+    public synchronized void abort() {
+      try {
+        output.close();
+      } catch (IOException e) {
+        // The file is deleted anyway.
+      }
+      tempFile.delete();
+    }
+
+  }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the {@link FreeBusySnapshot} of all the contacts of the account in
+ * the background, over Wi-Fi only, when the snapshot is enabled in the
+ * settings and is older than {@link #SYNC_INTERVAL}. The contacts are fetched
+ * by batches and written to the snapshot as they arrive, so only a batch of
+ * busy times is held in memory at a time.
+ */
+public class FreeBusySnapshotSync {
+
+  /**
+   * Age in milliseconds after which the snapshot is built again, when the
+   * retriever stops serving it directly.
+   */
+  public static final long SYNC_INTERVAL = SnapshotBusyTimesRetriever.DEFAULT_TTL;
+
+  /** Number of days in the snapshot, starting today. */
+  public static final int DAY_COUNT = 91;
+
+  /** Number of contacts fetched together. */
+  private static final int BATCH_SIZE = 200;
+
+  private static FreeBusySnapshotSync instance;
+
+  private final Context context;
+
+  /** The snapshot file. */
+  private final File file;
+
+  /** The thread building the snapshot. */
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  /** The retriever fetching the busy times, reused by every sync. */
+  private final BusyTimesRetriever retriever = new FreeBusyTimesRetriever();
+
+  /** The running sync, or null. */
+  private Future<?> sync;
+
+  private FreeBusySnapshotSync(Context context) {
+    this.context = context;
+    this.file = getFile(context);
+  }
+
+  /**
+   * @param context The application context.
+   * @return The sync shared by the application.
+   */
+  public static synchronized FreeBusySnapshotSync getInstance(Context context) {
+    if (instance == null)
+      instance = new FreeBusySnapshotSync(context.getApplicationContext());
+    return instance;
+  }
+
+  /**
+   * @param context The application context.
+   * @return The snapshot file of the application.
+   */
+  public static File getFile(Context context) {
+    return new File(context.getFilesDir(), FreeBusySnapshot.FILE_NAME);
+  }
+
+  /**
+   * Build the snapshot of the contacts in the background if it is enabled and
+   * stale, or delete it if it has been disabled. Nothing is done while a sync
+   * is running or without authentication.
+   *
+   * @param attendees The contacts of the account.
+   */
+  public synchronized void syncIfStale(List<Attendee> attendees) {
+    if (!Settings.getInstance().doUseSnapshot()) {
+      file.delete();
+      return;
+    }
+    if ((sync != null && !sync.isDone()) || attendees.isEmpty()
+        || CalendarServiceManager.getInstance().getService() == null)
+      return;
+    if (System.currentTimeMillis() - file.lastModified() < SYNC_INTERVAL || !isOnWifi())
+      return;
+
+    final List<Attendee> contacts = new ArrayList<Attendee>(attendees);
+
+    sync = executor.submit(new Runnable() {
+      public void run() {
+        sync(contacts);
+      }
+    });
+  }
+
+  /**
+   * Fetch the busy times of the contacts from today and replace the snapshot.
+   * The contacts whose busy times couldn't be fetched are left out, but the
+   * previous snapshot is kept if none of the contacts of a batch could be
+   * fetched, e.g when the network dropped, so the sync is tried again on the
+   * next call to {@link #syncIfStale}.
+   */
+  private void sync(List<Attendee> attendees) {
+    long start = System.currentTimeMillis();
+    DayIndex days = new DayIndex(CalendarServiceManager.getInstance().getTimeZone(), start,
+        DAY_COUNT);
+    int firstDay = days.getDay(start);
+    int lastDay = firstDay + DAY_COUNT - 1;
+    FreeBusySnapshot.Writer writer = null;
+    boolean committed = false;
+
+    try {
+      writer = new FreeBusySnapshot.Writer(file, days.getDayStart(firstDay), days
+          .getDayStart(lastDay));
+      for (int i = 0; i < attendees.size(); i += BATCH_SIZE) {
+        if (Thread.interrupted())
+          return;
+
+        BusyTimesResult result = retriever.getBusyIntervals(attendees.subList(i, Math.min(i
+            + BATCH_SIZE, attendees.size())), new Date(days.getDayStart(firstDay)), DAY_COUNT,
+            context);
+
+        if (result.isEmpty()) {
+          Log.e(MeetingSchedulerConstants.TAG, "Couldn't fetch the freebusy of contacts "
+              + i + " to " + Math.min(i + BATCH_SIZE, attendees.size())
+              + ", keeping the previous snapshot");
+          return;
+        }
+        for (Map.Entry<Attendee, TimeIntervals> entry : result.entrySet()) {
+          addBusyTimes(writer, entry.getKey().email, entry.getValue(), days, firstDay, lastDay);
+        }
+      }
+      writer.commit();
+      committed = true;
+      Log.i(MeetingSchedulerConstants.TAG, "Synced the freebusy snapshot of "
+          + attendees.size() + " contact(s) in " + (System.currentTimeMillis() - start) + "ms");
+    } catch (IOException e) {
+      Log.e(MeetingSchedulerConstants.TAG, "Couldn't write the freebusy snapshot: "
+          + e.getMessage());
+    } finally {
+      if (writer != null && !committed)
+        writer.abort();
+    }
+  }
+
+  /**
+   * Split the busy times of a contact by day and add them to the snapshot.
+   */
+  private static void addBusyTimes(FreeBusySnapshot.Writer writer, String email,
+      TimeIntervals busyTimes, DayIndex days, int firstDay, int lastDay) throws IOException {
+    long[] dayStarts = new long[lastDay - firstDay + 1];
+    TimeIntervals[] dayBusyTimes = new TimeIntervals[dayStarts.length];
+    int i = 0;
+
+    if (!busyTimes.isSorted())
+      busyTimes.sort();
+    for (int day = firstDay; day <= lastDay; ++day) {
+      long dayStart = days.getDayStart(day);
+      TimeIntervals dayBusy = new TimeIntervals(4);
+
+      i = busyTimes.clip(i, dayStart, days.getDayEnd(day), dayBusy);
+      dayStarts[day - firstDay] = dayStart;
+      dayBusyTimes[day - firstDay] = dayBusy;
+    }
+    writer.add(email, dayStarts, dayBusyTimes);
+  }
+
+  /**
+   * @return Whether the device is on Wi-Fi and may use the network in the
+   *         background.
+   */
+  private boolean isOnWifi() {
+    ConnectivityManager connectivity = (ConnectivityManager) context
+        .getSystemService(Context.CONNECTIVITY_SERVICE);
+    NetworkInfo network = connectivity.getActiveNetworkInfo();
+
+    return network != null && network.isConnected() && connectivity.getBackgroundDataSetting()
+        && network.getType() == ConnectivityManager.TYPE_WIFI;
+  }
+
+}
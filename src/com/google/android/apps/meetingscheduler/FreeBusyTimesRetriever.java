@@ -19,7 +19,11 @@ package com.google.android.apps.meetingscheduler;
 import android.content.Context;
 import android.util.Log;
 
+import com.google.api.client.googleapis.GoogleUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.util.DateTime;
+import com.google.api.client.xml.atom.AtomFeedContent;
 import com.google.api.data.calendar.v2.CalendarService;
 import com.google.api.data.calendar.v2.CalendarUrl;
 import com.google.api.data.calendar.v2.UrlFactory;
@@ -30,6 +34,7 @@ import com.google.api.data.gdata.v2.model.Link;
 import com.google.api.data.gdata.v2.model.batch.BatchOperation;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
@@ -37,6 +42,16 @@ import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Retrieves the busy times from the Google Calendar API.
@@ -47,42 +62,441 @@ public class FreeBusyTimesRetriever implements BusyTimesRetriever {
 
   private static final String BASE_FREEBUSY_ID = "http://www.google.com/calendar/feeds/default/freebusy/";
 
+  /** Default maximum number of attendees in a batch request. */
+  public static final int DEFAULT_CHUNK_SIZE = 25;
+
+  /** Default maximum number of batch requests sent at the same time. */
+  public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+  /** Default time given to a chunk, retries included, in milliseconds. */
+  public static final long DEFAULT_CHUNK_DEADLINE = 20 * 1000;
+
+  /**
+   * Default time after which a duplicate of a slow batch request is sent, in
+   * milliseconds.
+   */
+  public static final long DEFAULT_HEDGE_DELAY = 4 * 1000;
+
+  /** Default number of times a failed batch request is sent again. */
+  public static final int DEFAULT_MAX_RETRIES = 2;
+
+  /** Time to wait before the first retry, doubled at each retry. */
+  private static final long INITIAL_BACKOFF = 500;
+
+  /** Time between two checks for a free thread, in milliseconds. */
+  private static final long THREAD_POLL_INTERVAL = 100;
+
+  /** The maximum number of attendees in a batch request. */
+  private final int chunkSize;
+
+  /** The maximum number of batch requests sent at the same time. */
+  private final int maxConcurrentRequests;
+
+  /** The time given to a chunk, retries included, in milliseconds. */
+  private final long chunkDeadline;
+
+  /** The time after which a duplicate of a slow batch request is sent. */
+  private final long hedgeDelay;
+
+  /** The number of times a failed batch request is sent again. */
+  private final int maxRetries;
+
+  /** The threads sending the batch requests, shared by every retrieval. */
+  private final ExecutorService executor;
+
+  /**
+   * The number of batch requests sent and not over yet, including the
+   * cancelled ones still blocked in I/O.
+   */
+  private final AtomicInteger activeRequests = new AtomicInteger();
+
   /**
    * Constructor.
    */
   public FreeBusyTimesRetriever() {
+    this(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_CONCURRENT_REQUESTS);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param chunkSize The maximum number of attendees in a batch request.
+   * @param maxConcurrentRequests The maximum number of batch requests sent at
+   *          the same time.
+   */
+  public FreeBusyTimesRetriever(int chunkSize, int maxConcurrentRequests) {
+    this(chunkSize, maxConcurrentRequests, DEFAULT_CHUNK_DEADLINE, DEFAULT_HEDGE_DELAY,
+        DEFAULT_MAX_RETRIES);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param chunkSize The maximum number of attendees in a batch request.
+   * @param maxConcurrentRequests The maximum number of batch requests sent at
+   *          the same time, including the duplicates of slow requests.
+   * @param chunkDeadline The time given to a chunk, retries included, in
+   *          milliseconds.
+   * @param hedgeDelay The time after which a duplicate of a slow batch request
+   *          is sent, in milliseconds.
+   * @param maxRetries The number of times a failed batch request is sent
+   *          again.
+   */
+  public FreeBusyTimesRetriever(int chunkSize, int maxConcurrentRequests, long chunkDeadline,
+      long hedgeDelay, int maxRetries) {
+    this.chunkSize = Math.max(chunkSize, 1);
+    this.maxConcurrentRequests = Math.max(maxConcurrentRequests, 1);
+    this.chunkDeadline = chunkDeadline;
+    this.hedgeDelay = hedgeDelay;
+    this.maxRetries = Math.max(maxRetries, 0);
+    this.executor = Executors.newFixedThreadPool(this.maxConcurrentRequests);
   }
 
   @Override
   public Map<Attendee, List<Busy>> getBusyTimes(List<Attendee> attendees, Date startDate,
       Context context) {
+    // The last day of the window is only partially covered by the time span.
+    return getBusyTimes(attendees, startDate, Settings.getInstance().getTimeSpan() + 1, context);
+  }
+
+  @Override
+  public Map<Attendee, List<Busy>> getBusyTimes(List<Attendee> attendees, Date startDate,
+      int timeSpan, Context context) {
     Map<Attendee, List<Busy>> result = new HashMap<Attendee, List<Busy>>();
-    Map<String, Attendee> batchIds = new HashMap<String, Attendee>();
-    CalendarService service = CalendarServiceManager.getInstance().getService();
-    FreeBusyList batchRequest = createBatchRequest(attendees, batchIds);
-    CalendarUrl url = createBatchUrl(startDate, Settings.getInstance().getTimeSpan());
+
+    for (Map.Entry<Attendee, TimeIntervals> entry : getBusyIntervals(attendees, startDate,
+        timeSpan, context).entrySet()) {
+      result.put(entry.getKey(), entry.getValue().toBusyTimes());
+    }
+
+    return result;
+  }
+
+  @Override
+  public BusyTimesResult getBusyIntervals(List<Attendee> attendees, Date startDate,
+      int timeSpan, Context context) {
+    return getBusyIntervals(attendees, startDate, timeSpan, context, null);
+  }
+
+  /**
+   * Retrieves the busy times in batch requests of at most {@code chunkSize}
+   * attendees, sent concurrently on at most {@code maxConcurrentRequests}
+   * threads shared by all the retrievals. The busy times of each attendee are published to
+   * {@code listener} as soon as their entry of the response is parsed.
+   * 
+   * A failed batch request is sent again after an exponential backoff, and a
+   * duplicate of a batch request still running after {@code hedgeDelay} is
+   * sent when a thread is free, the first response winning. A chunk still
+   * missing after {@code chunkDeadline} is given up on, so it only loses the
+   * busy times of its own attendees.
+   */
+  @Override
+  public BusyTimesResult getBusyIntervals(List<Attendee> attendees, Date startDate,
+      int timeSpan, Context context, BusyTimesListener listener) {
+    BusyTimesResult result = new BusyTimesResult();
+    List<ChunkRetrieval> chunks = new ArrayList<ChunkRetrieval>();
+
+    for (int i = 0; i < attendees.size(); i += chunkSize) {
+      chunks.add(new ChunkRetrieval(attendees.subList(i, Math.min(i + chunkSize,
+          attendees.size())), startDate, timeSpan, listener));
+    }
+    if (!chunks.isEmpty())
+      retrieveChunks(chunks);
+
+    for (ChunkRetrieval chunk : chunks) {
+      for (Attendee attendee : chunk.attendees) {
+        TimeIntervals busyTimes = chunk.getBusyTimes(attendee);
+
+        if (busyTimes != null)
+          result.put(attendee, busyTimes, BusyTimesResult.Status.FRESH);
+        else
+          result.setFailed(attendee);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Send the batch requests of the chunks, schedule their retries and
+   * duplicates and enforce their deadlines until every chunk is done. A
+   * request or a duplicate is only sent when fewer than
+   * {@code maxConcurrentRequests} requests are active, counting the ones of
+   * the other retrievals and the cancelled ones still blocked in I/O, as
+   * cancelling can't interrupt a blocking read.
+   * 
+   * @param chunks The chunks to retrieve.
+   */
+  private void retrieveChunks(List<ChunkRetrieval> chunks) {
+    CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+    Map<Future<Void>, ChunkRetrieval> requests = new HashMap<Future<Void>, ChunkRetrieval>();
 
     try {
-      FreeBusyList freeBusyFeed = service.executeBatch(batchRequest, url);
+      while (true) {
+        long now = System.currentTimeMillis();
+        long wakeUp = Long.MAX_VALUE;
+
+        for (ChunkRetrieval chunk : chunks) {
+          if (chunk.done)
+            continue;
+          if (chunk.deadline <= now) {
+            Log.e(MeetingSchedulerConstants.TAG, "Freebusy request timed out for "
+                + chunk.attendees.size() + " attendee(s)");
+            chunk.finish();
+            continue;
+          }
 
-      for (FreeBusy entry : freeBusyFeed.entries) {
-        Attendee attendee = batchIds.get(entry.batchId);
+          if (chunk.requests.isEmpty()) {
+            if (chunk.retryTime > now) {
+              wakeUp = Math.min(wakeUp, chunk.retryTime);
+            } else if (activeRequests.get() < maxConcurrentRequests) {
+              if (chunk.deadline == Long.MAX_VALUE)
+                chunk.deadline = now + chunkDeadline;
+              chunk.hedgeTime = now + hedgeDelay;
+              chunk.submit(completionService, requests);
+            } else {
+              wakeUp = Math.min(wakeUp, now + THREAD_POLL_INTERVAL);
+            }
+          } else if (chunk.requests.size() == 1 && chunk.hedgeTime <= now) {
+            if (activeRequests.get() < maxConcurrentRequests) {
+              Log.i(MeetingSchedulerConstants.TAG,
+                  "Sending a duplicate of a slow freebusy request");
+              chunk.hedgeTime = Long.MAX_VALUE;
+              chunk.submit(completionService, requests);
+            } else {
+              wakeUp = Math.min(wakeUp, now + THREAD_POLL_INTERVAL);
+            }
+          }
+          wakeUp = Math.min(wakeUp, chunk.deadline);
+          if (chunk.requests.size() == 1)
+            wakeUp = Math.min(wakeUp, chunk.hedgeTime);
+        }
+        if (wakeUp == Long.MAX_VALUE && requests.isEmpty())
+          break;
 
-        if (attendee != null) {
-          List<Busy> busyTimes = entry.busyTimes;
+        Future<Void> request = completionService.poll(Math.max(wakeUp - now, 0),
+            TimeUnit.MILLISECONDS);
 
-          if (busyTimes == null)
-            busyTimes = new ArrayList<Busy>();
-          result.put(attendee, busyTimes);
-        } else
-          Log.e(MeetingSchedulerConstants.TAG, "Unknown batch ID: " + entry.batchId);
+        if (request != null)
+          onRequestDone(request, requests.remove(request));
       }
-    } catch (IOException e) {
+    } catch (InterruptedException e) {
+      Log.e(MeetingSchedulerConstants.TAG, "Interrupted while retrieving freebusy information");
+      Thread.currentThread().interrupt();
+    } finally {
+      for (ChunkRetrieval chunk : chunks) {
+        chunk.finish();
+      }
+    }
+  }
+
+  /**
+   * Update a chunk after one of its batch requests is done, scheduling a retry
+   * if it failed and no other request of the chunk is running.
+   * 
+   * @param request The batch request.
+   * @param chunk The chunk of the batch request.
+   */
+  private void onRequestDone(Future<Void> request, ChunkRetrieval chunk) {
+    chunk.release(request);
+    if (chunk.done)
+      return;
+
+    try {
+      request.get();
+      chunk.finish();
+    } catch (ExecutionException e) {
       Log.e(MeetingSchedulerConstants.TAG,
-          "IOException occured while retrieving freebusy information: " + e.getMessage());
+          "Exception occured while retrieving freebusy information: " + e.getCause());
+      if (!chunk.requests.isEmpty())
+        return;
+      if (chunk.retries < maxRetries) {
+        chunk.retryTime = System.currentTimeMillis() + (INITIAL_BACKOFF << chunk.retries);
+        ++chunk.retries;
+      } else {
+        chunk.finish();
+      }
+    } catch (InterruptedException e) {
+      // The request is done, get() doesn't wait.
     }
+  }
 
-    return result;
+  /**
+   * The retrieval of the busy times of a chunk of attendees, possibly through
+   * several batch requests. The first busy times parsed for each attendee are
+   * kept and published, whichever request they come from. The scheduling
+   * fields are only used by {@link #retrieveChunks(List)}.
+   */
+  private class ChunkRetrieval {
+
+    private final List<Attendee> attendees;
+    private final Date startDate;
+    private final int timeSpan;
+    private final BusyTimesListener listener;
+
+    /** The busy times parsed so far. */
+    private final Map<Attendee, TimeIntervals> busyTimes = new HashMap<Attendee, TimeIntervals>();
+
+    /**
+     * The running batch requests, mapped to whether they have started or been
+     * released, so exactly one of the request and the scheduler releases its
+     * active request count.
+     */
+    private final Map<Future<Void>, AtomicBoolean> requests =
+        new HashMap<Future<Void>, AtomicBoolean>();
+
+    /** Whether the chunk has been retrieved or given up on. */
+    private boolean done;
+
+    /** The number of retries so far. */
+    private int retries;
+
+    /** The time at which to retry. */
+    private long retryTime;
+
+    /** The time at which to send a duplicate of the running request. */
+    private long hedgeTime = Long.MAX_VALUE;
+
+    /** The time at which to give up on the chunk. */
+    private long deadline = Long.MAX_VALUE;
+
+    public ChunkRetrieval(List<Attendee> attendees, Date startDate, int timeSpan,
+        BusyTimesListener listener) {
+      this.attendees = attendees;
+      this.startDate = startDate;
+      this.timeSpan = timeSpan;
+      this.listener = listener;
+    }
+
+    /**
+     * Send a batch request for the chunk.
+     */
+    public void submit(CompletionService<Void> completionService,
+        Map<Future<Void>, ChunkRetrieval> requests) {
+      final AtomicBoolean started = new AtomicBoolean();
+
+      activeRequests.incrementAndGet();
+      Future<Void> request = completionService.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          // The request has been released by the scheduler if cancelled.
+          if (!started.compareAndSet(false, true))
+            return null;
+          try {
+            final Map<String, Attendee> batchIds = new HashMap<String, Attendee>();
+            FreeBusyList batchRequest = createBatchRequest(attendees, batchIds);
+
+            executeBatch(batchRequest, createBatchUrl(startDate, timeSpan),
+                new FreeBusyFeedParser.EntryListener() {
+                  @Override
+                  public void onEntry(String batchId, TimeIntervals entryBusyTimes) {
+                    Attendee attendee = batchIds.get(batchId);
+
+                    if (attendee != null)
+                      publish(attendee, entryBusyTimes);
+                    else
+                      Log.e(MeetingSchedulerConstants.TAG, "Unknown batch ID: " + batchId);
+                  }
+                });
+            return null;
+          } finally {
+            activeRequests.decrementAndGet();
+          }
+        }
+      });
+
+      this.requests.put(request, started);
+      requests.put(request, this);
+    }
+
+    /**
+     * Forget a batch request which is done, releasing its active request count
+     * if it was cancelled before it started.
+     */
+    public synchronized void release(Future<Void> request) {
+      AtomicBoolean started = requests.remove(request);
+
+      if (started != null && started.compareAndSet(false, true))
+        activeRequests.decrementAndGet();
+    }
+
+    /**
+     * Keep and publish the busy times of an attendee unless they have already
+     * been parsed from another request or the chunk is done.
+     */
+    private synchronized void publish(Attendee attendee, TimeIntervals entryBusyTimes) {
+      if (done || busyTimes.containsKey(attendee))
+        return;
+      busyTimes.put(attendee, entryBusyTimes);
+      if (listener != null)
+        listener.onBusyTimes(attendee, entryBusyTimes);
+    }
+
+    /**
+     * @return The busy times of the attendee, or null if they haven't been
+     *         parsed.
+     */
+    public synchronized TimeIntervals getBusyTimes(Attendee attendee) {
+      return busyTimes.get(attendee);
+    }
+
+    /**
+     * Mark the chunk as done and cancel its running requests, whose results
+     * are ignored from now on.
+     */
+    public synchronized void finish() {
+      done = true;
+      for (Map.Entry<Future<Void>, AtomicBoolean> request : requests.entrySet()) {
+        request.getKey().cancel(true);
+        if (request.getValue().compareAndSet(false, true))
+          activeRequests.decrementAndGet();
+      }
+    }
+
+  }
+
+  /**
+   * Send the batch request and stream the response through the
+   * {@link FreeBusyFeedParser}, following the redirections like the
+   * {@link CalendarService} does.
+   * 
+   * @param batchRequest The batch request to send.
+   * @param url The URL to which to send the batch request.
+   * @param listener The listener to which to publish the parsed entries.
+   * @throws IOException If the request failed.
+   */
+  private void executeBatch(FreeBusyList batchRequest, GoogleUrl url,
+      FreeBusyFeedParser.EntryListener listener) throws IOException {
+    CalendarService service = CalendarServiceManager.getInstance().getService();
+    AtomFeedContent content = new AtomFeedContent();
+
+    content.namespaceDictionary = service.getNamespaceDict();
+    content.feed = batchRequest;
+
+    for (int redirects = 0;; ++redirects) {
+      HttpRequest request = service.getTransport().buildPostRequest();
+
+      request.url = url;
+      request.content = content;
+      try {
+        InputStream response = request.execute().getContent();
+
+        try {
+          FreeBusyFeedParser.parse(response, listener);
+          return;
+        } finally {
+          response.close();
+        }
+      } catch (HttpResponseException e) {
+        String location = e.response.headers.location;
+
+        if (e.response.statusCode != 302 || location == null
+            || redirects >= service.maxRedirectAttempt)
+          throw e;
+        e.response.ignore();
+        url = new GoogleUrl(location);
+      }
+    }
   }
 
   /**
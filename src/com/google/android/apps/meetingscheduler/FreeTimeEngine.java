@@ -0,0 +1,786 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+
+/**
+ * Compute the common free times from busy times packed as start/end pairs of
+ * milliseconds since epoch. Each attendee's busy times are kept in their own
+ * list, then all the lists are merged with a {@link BusyTimesMerger} and the
+ * free times of the query window are read in one sweep. A quorum query
+ * instead counts the free attendees while sweeping the start and end of every
+ * busy time. In both cases the free times are then clipped to the working
+ * hours and days of the settings' {@link AvailabilityMask}.
+ */
+public class FreeTimeEngine {
+
+  /** Number of milliseconds in a minute. */
+  private static final long MINUTE = 60000;
+
+  /** Shift of the time in a packed quorum event. */
+  private static final int EVENT_TIME_SHIFT = 18;
+
+  /** Bit set in a packed quorum event for the start of a busy time. */
+  private static final long EVENT_START_BIT = 1L << 17;
+
+  /** Mask of the list index in a packed quorum event. */
+  private static final long EVENT_LIST_MASK = EVENT_START_BIT - 1;
+
+  /** The busy times of every attendee, one list per attendee. */
+  private final List<TimeIntervals> busyTimes = new ArrayList<TimeIntervals>();
+
+  /** The time zone in which to compute days and working hours. */
+  private final TimeZone timeZone;
+
+  /**
+   * Constructor.
+   *
+   * @param timeZone The time zone in which to compute days and working hours.
+   */
+  public FreeTimeEngine(TimeZone timeZone) {
+    this.timeZone = timeZone;
+  }
+
+  /**
+   * Add the busy times of one attendee. The list is left untouched: the engine
+   * keeps its own sorted copy, in which the overlapping busy times are
+   * coalesced.
+   *
+   * @param attendeeBusyTimes The busy times of the attendee.
+   */
+  public void addBusyTimes(TimeIntervals attendeeBusyTimes) {
+    // The busy times from the feed are sorted and merged straight into the
+    // engine's copy, the others are sorted and coalesced in the copy.
+    if (attendeeBusyTimes.isSorted()) {
+      TimeIntervals engineBusyTimes = new TimeIntervals(attendeeBusyTimes.size());
+
+      attendeeBusyTimes.coalesce(engineBusyTimes);
+      busyTimes.add(engineBusyTimes);
+    } else {
+      addOwnBusyTimes(attendeeBusyTimes.copy());
+    }
+  }
+
+  /**
+   * Add {@code count} busy times of one attendee packed in {@code starts} and
+   * {@code ends}. The arrays are copied and left untouched.
+   *
+   * @param starts The start times of the busy times.
+   * @param ends The end times of the busy times.
+   * @param count The number of busy times to add.
+   */
+  public void addBusyTimes(long[] starts, long[] ends, int count) {
+    TimeIntervals attendeeBusyTimes = new TimeIntervals(count);
+
+    attendeeBusyTimes.addAll(starts, ends, count);
+    addOwnBusyTimes(attendeeBusyTimes);
+  }
+
+  /**
+   * Sort and coalesce in place busy times no one else references, and add
+   * them.
+   *
+   * @param attendeeBusyTimes The busy times of the attendee.
+   */
+  private void addOwnBusyTimes(TimeIntervals attendeeBusyTimes) {
+    if (!attendeeBusyTimes.isSorted())
+      attendeeBusyTimes.sort();
+    attendeeBusyTimes.coalesce();
+    busyTimes.add(attendeeBusyTimes);
+  }
+
+  /**
+   * Compute the available meeting times from the busy times added so far.
+   *
+   * @param startDate The date from which to look for available meeting times.
+   * @param settings The settings to use for the computation.
+   * @return The available meeting times, each on a single day.
+   */
+  public List<AvailableMeetingTime> getAvailableMeetingTimes(Date startDate, Settings settings) {
+    List<AvailableMeetingTime> result = new ArrayList<AvailableMeetingTime>();
+    Iterator<AvailableMeetingTime> iterator = createIterator(startDate, settings,
+        settings.getMeetingLength(), settings.getSlotGranularity() > 0);
+
+    while (iterator.hasNext()) {
+      result.add(iterator.next());
+    }
+
+    return result;
+  }
+
+  /**
+   * Compute the available meeting times for several meeting lengths at once,
+   * in a single pass over the free times: each free time is split into days
+   * once and its meeting times added to the result of every length fitting
+   * in it. The lists share their AvailableMeetingTime instances.
+   *
+   * @param startDate The date from which to look for available meeting times.
+   * @param settings The settings to use for the computation.
+   * @param meetingLengths The lengths of the meetings in minutes.
+   * @return The available meeting times, each on a single day, mapped by
+   *         meeting length.
+   */
+  public Map<Integer, List<AvailableMeetingTime>> getAvailableMeetingTimes(Date startDate,
+      Settings settings, int[] meetingLengths) {
+    Map<Integer, List<AvailableMeetingTime>> result = createResult(meetingLengths);
+    Iterator<Map<Integer, List<AvailableMeetingTime>>> iterator = getAvailableMeetingTimeIterator(
+        startDate, settings, meetingLengths);
+
+    while (iterator.hasNext()) {
+      for (Map.Entry<Integer, List<AvailableMeetingTime>> entry : iterator.next().entrySet()) {
+        result.get(entry.getKey()).addAll(entry.getValue());
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Lazily compute the available meeting times for several meeting lengths at
+   * once, one day at a time. The busy times are merged as the iterator is
+   * advanced, so the meeting times of the first days are returned before the
+   * following days are looked at. The iterator shares the engine's state and
+   * must not be used concurrently with other computations of this engine.
+   *
+   * @param startDate The date from which to look for available meeting times.
+   * @param settings The settings to use for the computation.
+   * @param meetingLengths The lengths of the meetings in minutes.
+   * @return An iterator over the days having available meeting times, in time
+   *         order, returning the meeting times of a day mapped by meeting
+   *         length. The lists of a day share their AvailableMeetingTime
+   *         instances.
+   */
+  public Iterator<Map<Integer, List<AvailableMeetingTime>>> getAvailableMeetingTimeIterator(
+      Date startDate, Settings settings, int[] meetingLengths) {
+    int[] lengths = meetingLengths.clone();
+
+    Arrays.sort(lengths);
+    return new DayIterator(lengths.length > 0 ? createIterator(startDate, settings, lengths[0],
+        settings.getSlotGranularity() > 0) : null, lengths);
+  }
+
+  /**
+   * Find the {@code count} best available meeting times according to
+   * {@code scorer}. The busy times are merged and the free times scored in
+   * time order, keeping the best ones in a bounded priority queue, and the
+   * search stops as soon as no later meeting time can beat them.
+   *
+   * @param startDate The date from which to look for available meeting times.
+   * @param settings The settings to use for the computation.
+   * @param count The maximum number of meeting times to return.
+   * @param scorer The scorer ranking the meeting times.
+   * @return The best available meeting times, best first.
+   */
+  public List<AvailableMeetingTime> getBestMeetingTimes(Date startDate, Settings settings,
+      int count, MeetingTimeScorer scorer) {
+    int meetingLength = settings.getMeetingLength();
+    PriorityQueue<RankedMeetingTime> best = new PriorityQueue<RankedMeetingTime>(
+        Math.max(count, 1));
+    Iterator<AvailableMeetingTime> iterator = createIterator(startDate, settings, meetingLength,
+        false);
+    DayIndex days = createDayIndex(startDate, settings);
+
+    while (count > 0 && iterator.hasNext()) {
+      AvailableMeetingTime meeting = iterator.next();
+      long meetingStart = meeting.start.getTime();
+      long meetingEnd = meeting.end.getTime();
+
+      if (best.size() == count && scorer.getMaxScore(meetingStart) <= best.peek().score)
+        break;
+      // Splitting a long enough free time may leave short pieces.
+      if (!isLongEnough(meetingStart, meetingEnd, meetingLength))
+        continue;
+
+      double score = scorer.score(meetingStart, meetingEnd, meetingLength, days);
+
+      if (best.size() < count) {
+        best.add(new RankedMeetingTime(meeting, score));
+      } else if (score > best.peek().score) {
+        best.poll();
+        best.add(new RankedMeetingTime(meeting, score));
+      }
+    }
+
+    AvailableMeetingTime[] result = new AvailableMeetingTime[best.size()];
+
+    for (int i = result.length - 1; i >= 0; --i) {
+      result[i] = best.poll().meeting;
+    }
+    return new ArrayList<AvailableMeetingTime>(Arrays.asList(result));
+  }
+
+  /**
+   * Compute the meeting times where at least {@code quorum} attendees are
+   * free, from {@code startDate} over the settings' time span. The busy times
+   * must have been added in the order of {@code attendees}. The meeting times
+   * are found in a single sweep over the start and end of every busy time,
+   * counting how many attendees are free between two of them.
+   *
+   * @param startDate The date from which to look for meeting times.
+   * @param settings The settings to use for the computation.
+   * @param attendees The attendees, in the order their busy times were added.
+   * @param quorum The minimum number of free attendees.
+   * @return The meeting times, each on a single day, with the free attendees
+   *         and the missing ones.
+   */
+  public List<AvailableMeetingTime> getQuorumMeetingTimes(Date startDate, Settings settings,
+      List<Attendee> attendees, int quorum) {
+    DayIndex days = createDayIndex(startDate, settings);
+    AvailabilityMask mask = settings.getAvailabilityMask();
+    int attendeeCount = busyTimes.size();
+    int eventCount = 0;
+
+    for (TimeIntervals list : busyTimes) {
+      eventCount += 2 * list.size();
+    }
+
+    // Each event is packed as time << 18 | isStart << 17 | list index, so that
+    // sorting the keys sorts by time with ends before starts.
+    long[] events = new long[eventCount];
+    int e = 0;
+
+    for (int i = 0; i < attendeeCount; ++i) {
+      e = addEvents(events, e, busyTimes.get(i), i);
+    }
+    Arrays.sort(events);
+
+    long windowEnd = days.addDays(startDate.getTime(), settings.getTimeSpan());
+    long current = startDate.getTime();
+    int[] busyCounts = new int[attendeeCount];
+    int freeCount = attendeeCount;
+    QuorumTimes quorumTimes = new QuorumTimes(attendees);
+
+    for (long event : events) {
+      long time = Math.min(event >> EVENT_TIME_SHIFT, windowEnd);
+      int list = (int) (event & EVENT_LIST_MASK);
+      boolean isStart = (event & EVENT_START_BIT) != 0;
+
+      if (time > current) {
+        if (freeCount >= quorum)
+          addQuorumTimes(quorumTimes, current, time, mask, days);
+        current = time;
+      }
+      if (isStart) {
+        if (busyCounts[list]++ == 0) {
+          --freeCount;
+          quorumTimes.setBusy(list, true);
+        }
+      } else if (--busyCounts[list] == 0) {
+        ++freeCount;
+        quorumTimes.setBusy(list, false);
+      }
+    }
+    if (windowEnd > current && freeCount >= quorum)
+      addQuorumTimes(quorumTimes, current, windowEnd, mask, days);
+
+    TimeIntervals freeTimes = quorumTimes.freeTimes;
+    List<AvailableMeetingTime> result = new ArrayList<AvailableMeetingTime>();
+
+    for (int i = 0; i < freeTimes.size(); ++i) {
+      long start = freeTimes.getStart(i);
+      long end = freeTimes.getEnd(i);
+
+      if (isLongEnough(start, end, settings.getMeetingLength())) {
+        int first = result.size();
+        List<Attendee> missing = quorumTimes.getMissingAttendees(i);
+
+        splitMeetingTime(start, end, result, days);
+        for (int j = first; j < result.size(); ++j) {
+          setAttendees(result.get(j), attendees, missing);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * The quorum meeting times found by the sweep and the attendees missing from
+   * each. The busy attendees are kept as bits flipped by the sweep, copied when
+   * a meeting time with a different set of busy attendees starts, and only
+   * turned into a list of attendees for the meeting times which are kept.
+   */
+  private static class QuorumTimes {
+
+    /** The meeting times. */
+    final TimeIntervals freeTimes = new TimeIntervals();
+
+    /** The indices of the attendees missing from each meeting time. */
+    private final List<BitSet> missing = new ArrayList<BitSet>();
+
+    private final List<Attendee> attendees;
+
+    /** The indices of the attendees currently busy. */
+    private final BitSet busy = new BitSet();
+
+    /** The number of changes of the busy attendees so far. */
+    private int changes;
+
+    /** The number of changes when the last meeting time started. */
+    private int lastChanges = -1;
+
+    QuorumTimes(List<Attendee> attendees) {
+      this.attendees = attendees;
+    }
+
+    /**
+     * Mark an attendee busy or free from now on.
+     */
+    void setBusy(int attendee, boolean isBusy) {
+      busy.set(attendee, isBusy);
+      ++changes;
+    }
+
+    /**
+     * Add a meeting time, extending the previous one if it ends at
+     * {@code start} and no attendee became busy or free since it started.
+     */
+    void add(long start, long end) {
+      int last = freeTimes.size() - 1;
+
+      if (last >= 0 && freeTimes.getEnd(last) == start && lastChanges == changes) {
+        freeTimes.set(last, freeTimes.getStart(last), end);
+      } else {
+        freeTimes.add(start, end);
+        missing.add((BitSet) busy.clone());
+        lastChanges = changes;
+      }
+    }
+
+    /**
+     * @param index The index of the meeting time.
+     * @return The attendees missing from the meeting time.
+     */
+    List<Attendee> getMissingAttendees(int index) {
+      BitSet indices = missing.get(index);
+      List<Attendee> result = new ArrayList<Attendee>(indices.cardinality());
+
+      for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+        result.add(attendees.get(i));
+      }
+      return result;
+    }
+
+  }
+
+  /**
+   * An available meeting time and its score, ordered from the worst score to
+   * the best.
+   */
+  private static class RankedMeetingTime implements Comparable<RankedMeetingTime> {
+    final AvailableMeetingTime meeting;
+    final double score;
+
+    RankedMeetingTime(AvailableMeetingTime meeting, double score) {
+      this.meeting = meeting;
+      this.score = score;
+    }
+
+    public int compareTo(RankedMeetingTime another) {
+      return Double.compare(score, another.score);
+    }
+  }
+
+  /**
+   * Iterator over the available meeting times of several meeting lengths, one
+   * day at a time. Each free time long enough for the shortest meeting is
+   * split into days once, and its pieces are kept along with the number of
+   * lengths fitting in the free time until a piece of a later day is found.
+   */
+  private class DayIterator implements Iterator<Map<Integer, List<AvailableMeetingTime>>> {
+    private final AvailableMeetingTimeIterator freeTimes;
+    private final int[] lengths;
+
+    /** The meeting times found but not returned yet, in time order. */
+    private final List<AvailableMeetingTime> pending = new ArrayList<AvailableMeetingTime>();
+
+    /** The number of lengths fitting in the free time of each pending meeting. */
+    private final List<Integer> pendingLengths = new ArrayList<Integer>();
+
+    /** Whether every free time has been read. */
+    private boolean exhausted;
+
+    /**
+     * @param freeTimes The free times, or null if there are no lengths.
+     * @param lengths The lengths of the meetings in minutes, sorted.
+     */
+    DayIterator(AvailableMeetingTimeIterator freeTimes, int[] lengths) {
+      this.freeTimes = freeTimes;
+      this.lengths = lengths;
+      this.exhausted = freeTimes == null;
+    }
+
+    public boolean hasNext() {
+      // Read the free times until the first pending day is complete.
+      while (!exhausted
+          && (pending.isEmpty() || getDay(0) == getDay(pending.size() - 1))) {
+        if (!freeTimes.findNextAvailableTime()) {
+          exhausted = true;
+          break;
+        }
+
+        long start = freeTimes.freeStart;
+        long end = freeTimes.freeEnd;
+        int fitting = 0;
+
+        while (fitting < lengths.length && isLongEnough(start, end, lengths[fitting])) {
+          ++fitting;
+        }
+        if (fitting > 0) {
+          int first = pending.size();
+
+          splitMeetingTime(start, end, pending, freeTimes.days);
+          for (int i = first; i < pending.size(); ++i) {
+            pendingLengths.add(fitting);
+          }
+        }
+      }
+      return !pending.isEmpty();
+    }
+
+    public Map<Integer, List<AvailableMeetingTime>> next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+
+      Map<Integer, List<AvailableMeetingTime>> result = createResult(lengths);
+      int day = getDay(0);
+      int count = 0;
+
+      for (; count < pending.size() && getDay(count) == day; ++count) {
+        for (int i = 0; i < pendingLengths.get(count); ++i) {
+          result.get(lengths[i]).add(pending.get(count));
+        }
+      }
+      pending.subList(0, count).clear();
+      pendingLengths.subList(0, count).clear();
+      return result;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return The day of the pending meeting time at {@code index}.
+     */
+    private int getDay(int index) {
+      return freeTimes.days.getDay(pending.get(index).start.getTime());
+    }
+  }
+
+  /**
+   * Iterator over the available meeting times, running the stages of the
+   * computation on one free time at a time: the free times of the window are
+   * read from the merged busy times or from the precomputed slots, clipped to
+   * the available times of the mask, then the ones shorter than a meeting are
+   * dropped and the others split into one-day meeting times.
+   */
+  private class AvailableMeetingTimeIterator implements Iterator<AvailableMeetingTime> {
+    private final BusyTimesMerger merger;
+    private final TimeIntervals freeTimes;
+    private final long windowEnd;
+    private final AvailabilityMask mask;
+    private final int meetingLength;
+    private final DayIndex days;
+    private final List<AvailableMeetingTime> pending = new ArrayList<AvailableMeetingTime>();
+    private int pendingIndex;
+    private int freeTimeIndex;
+    private long cursor;
+    private long gapStart;
+    private long gapEnd;
+    private long maskTime;
+    private long freeStart;
+    private long freeEnd;
+
+    /**
+     * Iterate over the gaps between the busy times streamed out of
+     * {@code merger}, from {@code windowStart} to {@code windowEnd}.
+     */
+    AvailableMeetingTimeIterator(BusyTimesMerger merger, long windowStart, long windowEnd,
+        AvailabilityMask mask, int meetingLength, DayIndex days) {
+      this.merger = merger;
+      this.freeTimes = null;
+      this.cursor = windowStart;
+      this.windowEnd = windowEnd;
+      this.mask = mask;
+      this.meetingLength = meetingLength;
+      this.days = days;
+    }
+
+    /**
+     * Iterate over already computed free times.
+     */
+    AvailableMeetingTimeIterator(TimeIntervals freeTimes, AvailabilityMask mask,
+        int meetingLength, DayIndex days) {
+      this.merger = null;
+      this.freeTimes = freeTimes;
+      this.windowEnd = Long.MAX_VALUE;
+      this.mask = mask;
+      this.meetingLength = meetingLength;
+      this.days = days;
+    }
+
+    public boolean hasNext() {
+      while (pendingIndex == pending.size()) {
+        pending.clear();
+        pendingIndex = 0;
+        if (!findNextAvailableTime())
+          return false;
+        if (isLongEnough(freeStart, freeEnd, meetingLength))
+          splitMeetingTime(freeStart, freeEnd, pending, days);
+      }
+      return true;
+    }
+
+    public AvailableMeetingTime next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      return pending.get(pendingIndex++);
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Move to the next free time clipped to the available times of the mask,
+     * e.g the 12:00-20:00 free time is 12:00-18:00 with 9:00-18:00 working
+     * hours.
+     *
+     * @return False if there are no more free times.
+     */
+    private boolean findNextAvailableTime() {
+      while (true) {
+        if (maskTime < gapEnd) {
+          long start = mask.getNextAvailableTime(maskTime, days);
+
+          if (start < gapEnd) {
+            freeStart = start;
+            freeEnd = Math.min(mask.getNextUnavailableTime(start, days), gapEnd);
+            maskTime = freeEnd;
+            return true;
+          }
+        }
+        if (!findNextFreeTime())
+          return false;
+        maskTime = gapStart;
+      }
+    }
+
+    /**
+     * Move to the next free time, e.g the gap between the merged 9:00-12:00 and
+     * 14:00-15:00 busy times is the 12:00-14:00 free time.
+     *
+     * @return False if there are no more free times.
+     */
+    private boolean findNextFreeTime() {
+      if (merger == null) {
+        if (freeTimeIndex == freeTimes.size())
+          return false;
+        gapStart = freeTimes.getStart(freeTimeIndex);
+        gapEnd = freeTimes.getEnd(freeTimeIndex);
+        ++freeTimeIndex;
+        return true;
+      }
+
+      while (cursor < windowEnd) {
+        if (!merger.next()) {
+          gapStart = cursor;
+          gapEnd = windowEnd;
+          cursor = windowEnd;
+          return true;
+        }
+
+        long start = merger.getStart();
+        long end = merger.getEnd();
+
+        if (start > cursor) {
+          gapStart = cursor;
+          gapEnd = Math.min(start, windowEnd);
+          cursor = Math.max(cursor, end);
+          return true;
+        }
+        cursor = Math.max(cursor, end);
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Add the start and end events of the busy times of a list.
+   *
+   * @return The index of the next event to add.
+   */
+  private int addEvents(long[] events, int index, TimeIntervals list, int listIndex) {
+    for (int i = 0; i < list.size(); ++i) {
+      events[index++] = list.getStart(i) << EVENT_TIME_SHIFT | EVENT_START_BIT | listIndex;
+      events[index++] = list.getEnd(i) << EVENT_TIME_SHIFT | listIndex;
+    }
+    return index;
+  }
+
+  /**
+   * Add the available times between {@code start} and {@code end} as quorum
+   * meeting times.
+   */
+  private void addQuorumTimes(QuorumTimes quorumTimes, long start, long end,
+      AvailabilityMask mask, DayIndex days) {
+    long time = mask.getNextAvailableTime(start, days);
+
+    while (time < end) {
+      long available = Math.min(mask.getNextUnavailableTime(time, days), end);
+
+      quorumTimes.add(time, available);
+      if (available >= end)
+        break;
+      time = mask.getNextAvailableTime(available, days);
+    }
+  }
+
+  /**
+   * Set the free and missing attendees of a quorum meeting time.
+   */
+  private void setAttendees(AvailableMeetingTime meeting, List<Attendee> attendees,
+      List<Attendee> missing) {
+    meeting.attendees = new ArrayList<Attendee>(attendees);
+    meeting.attendees.removeAll(missing);
+    meeting.missingAttendees = missing;
+  }
+
+  /**
+   * @return A map of an empty list of meeting times for every length.
+   */
+  private static Map<Integer, List<AvailableMeetingTime>> createResult(int[] meetingLengths) {
+    Map<Integer, List<AvailableMeetingTime>> result = new HashMap<Integer, List<AvailableMeetingTime>>();
+
+    for (int length : meetingLengths) {
+      result.put(length, new ArrayList<AvailableMeetingTime>());
+    }
+    return result;
+  }
+
+  /**
+   * Create the table of the days of the query, from the day of
+   * {@code startDate} over the settings' time span.
+   */
+  private DayIndex createDayIndex(Date startDate, Settings settings) {
+    return new DayIndex(timeZone, startDate.getTime(), settings.getTimeSpan() + 1);
+  }
+
+  /**
+   * Create the iterator over the available meeting times of the query window,
+   * i.e from {@code startDate} over the settings' time span.
+   *
+   * @param startDate The date from which to look for available meeting times.
+   * @param settings The settings to use for the computation.
+   * @param meetingLength The minimum length of the free times in minutes.
+   * @param useSlots True to compute the free times in slots of the settings'
+   *          granularity.
+   * @return The iterator.
+   */
+  private AvailableMeetingTimeIterator createIterator(Date startDate, Settings settings,
+      int meetingLength, boolean useSlots) {
+    DayIndex days = createDayIndex(startDate, settings);
+    AvailabilityMask mask = settings.getAvailabilityMask();
+    long windowStart = startDate.getTime();
+    long windowEnd = days.addDays(windowStart, settings.getTimeSpan());
+
+    if (useSlots) {
+      return new AvailableMeetingTimeIterator(findAvailableSlots(windowStart, windowEnd, mask,
+          settings.getSlotGranularity(), meetingLength, days), mask, meetingLength, days);
+    }
+    return new AvailableMeetingTimeIterator(new BusyTimesMerger(busyTimes), windowStart,
+        windowEnd, mask, meetingLength, days);
+  }
+
+  /**
+   * Find the free times by intersecting the availability bitmaps of every
+   * attendee and of the mask, one slot of {@code slotMinutes} per bit, from
+   * {@code windowStart} to {@code windowEnd}.
+   *
+   * @param windowStart The time from which to look for free times.
+   * @param windowEnd The time until which to look for free times.
+   * @param mask The available times.
+   * @param slotMinutes The length of a slot in minutes.
+   * @param meetingLength The minimum length of the free times in minutes.
+   * @param days The days of the query.
+   * @return The free times, aligned on slots.
+   */
+  private TimeIntervals findAvailableSlots(long windowStart, long windowEnd, AvailabilityMask mask,
+      int slotMinutes, int meetingLength, DayIndex days) {
+    AvailabilityBitmap common = new AvailabilityBitmap(windowStart, windowEnd, slotMinutes, days);
+    AvailabilityBitmap attendee = new AvailabilityBitmap(windowStart, windowEnd, slotMinutes,
+        days);
+
+    // The slot containing windowStart is only partially in the window.
+    common.setBusy(0, windowStart);
+    mask.setUnavailable(common, windowStart, windowEnd, days);
+    for (TimeIntervals attendeeBusyTimes : busyTimes) {
+      attendee.setAllFree();
+      attendee.setBusy(attendeeBusyTimes);
+      common.and(attendee);
+    }
+
+    return common.findFreeRuns((meetingLength + slotMinutes - 1) / slotMinutes);
+  }
+
+  /**
+   * Split a free time into a set of meeting times, each for one day.
+   *
+   * @param start The start of the free time.
+   * @param end The end of the free time.
+   * @param result The list to which to add the meeting times.
+   * @param days The days of the query.
+   */
+  private void splitMeetingTime(long start, long end, List<AvailableMeetingTime> result,
+      DayIndex days) {
+    int startDay = days.getDay(start);
+    int endDay = days.getDay(end);
+
+    if (startDay == endDay) {
+      result.add(new AvailableMeetingTime(new Date(start), new Date(end)));
+      return;
+    }
+
+    result.add(new AvailableMeetingTime(new Date(start), new Date(days.getDayEnd(startDay) - 1)));
+    for (int day = startDay + 1; day < endDay; ++day) {
+      result.add(new AvailableMeetingTime(new Date(days.getDayStart(day)), new Date(days
+          .getDayEnd(day) - 1)));
+    }
+    result.add(new AvailableMeetingTime(new Date(days.getDayStart(endDay)), new Date(end)));
+  }
+
+  /**
+   * @return True if a meeting of {@code length} minutes fits between
+   *         {@code start} and {@code end}.
+   */
+  private static boolean isLongEnough(long start, long end, int length) {
+    return (end - start) / MINUTE >= length;
+  }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+/**
+ * Scores available meeting times so the best ones can be proposed first. A
+ * higher score is better.
+ */
+public interface MeetingTimeScorer {
+
+  /**
+   * Returns the score of an available meeting time.
+   *
+   * @param start The start of the meeting time in milliseconds.
+   * @param end The end of the meeting time in milliseconds.
+   * @param meetingLength The length of the meeting to schedule in minutes.
+   * @param days The local days of the search.
+   * @return The score of the meeting time.
+   */
+  public double score(long start, long end, int meetingLength, DayIndex days);
+
+  /**
+   * Returns an upper bound of the score of any meeting time starting at or
+   * after {@code start}. The search stops once this bound can't beat the
+   * meeting times already found.
+   *
+   * @param start The start of the next meeting times to score.
+   * @return The best score any of these meeting times can have.
+   */
+  public double getMaxScore(long start);
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+/**
+ * The available {@link MeetingTimeScorer}s.
+ */
+public class MeetingTimeScorers {
+
+  /** Number of milliseconds in a minute. */
+  private static final long MINUTE = 60000;
+
+  /** Number of milliseconds in an hour. */
+  private static final long HOUR = 60 * MINUTE;
+
+  /**
+   * Scorer instance preferring the earliest meeting times.
+   */
+  public static final MeetingTimeScorer EARLIEST = new MeetingTimeScorer() {
+    @Override
+    public double score(long start, long end, int meetingLength, DayIndex days) {
+      return -start;
+    }
+
+    @Override
+    public double getMaxScore(long start) {
+      return -start;
+    }
+  };
+
+  /**
+   * Scorer instance preferring the meeting times a meeting fills best, i.e
+   * which leave the fewest free minutes on each side of the meeting.
+   *
+   * A later meeting time may always fit the meeting exactly, so the search
+   * only stops early once it has found as many exact fits as requested.
+   */
+  public static final MeetingTimeScorer FEWEST_BOUNDARIES = new MeetingTimeScorer() {
+    @Override
+    public double score(long start, long end, int meetingLength, DayIndex days) {
+      return -Math.max(0, (end - start) / MINUTE - meetingLength);
+    }
+
+    @Override
+    public double getMaxScore(long start) {
+      return 0;
+    }
+  };
+
+  /**
+   * Scorer instance preferring the meeting times in which a meeting can be
+   * held the closest to midday.
+   *
+   * A later day may always hold the meeting at midday, so the search only
+   * stops early once it has found as many meeting times centered on midday
+   * as requested.
+   */
+  public static final MeetingTimeScorer MID_DAY = new MeetingTimeScorer() {
+    @Override
+    public double score(long start, long end, int meetingLength, DayIndex days) {
+      long length = meetingLength * MINUTE;
+      long midDay = days.getTime(days.getDay(start), 12 * HOUR);
+
+      // Center the meeting on midday as far as the meeting time allows.
+      long meetingStart = Math.max(start, Math.min(midDay - length / 2, end - length));
+
+      return -Math.abs(meetingStart + length / 2 - midDay) / MINUTE;
+    }
+
+    @Override
+    public double getMaxScore(long start) {
+      return 0;
+    }
+  };
+
+  /**
+   * Can't instantiate MeetingTimeScorers.
+   */
+  private MeetingTimeScorers() {
+  }
+
+}
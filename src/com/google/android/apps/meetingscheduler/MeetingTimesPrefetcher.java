@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes the available meeting times of the next time span windows in the
+ * background while the current ones are displayed, so that they can be
+ * displayed at once when the user asks for more meeting times. The windows
+ * are computed one at a time, in order, on a single thread.
+ *
+ * The number of windows prefetched ahead is set by
+ * {@link Settings#getPrefetchDepth()}, and the busy times prefetched are capped
+ * to {@code maxAttendeeDays} attendee-days, i.e attendees times days, as the
+ * user may never ask for them.
+ */
+public class MeetingTimesPrefetcher {
+
+  /** Default maximum number of attendee-days prefetched. */
+  public static final int DEFAULT_MAX_ATTENDEE_DAYS = 1000;
+
+  private final EventTimeRetriever eventTimeRetriever;
+  private final List<Attendee> attendees;
+  private final Context context;
+
+  /** Maximum number of attendee-days prefetched. */
+  private final int maxAttendeeDays;
+
+  /** The thread computing the windows. */
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  /** The windows prefetched or being prefetched, mapped by start time. */
+  private final Map<Long, Future<Map<Integer, List<AvailableMeetingTime>>>> windows =
+      new HashMap<Long, Future<Map<Integer, List<AvailableMeetingTime>>>>();
+
+  /** The number of attendee-days prefetched so far. */
+  private int attendeeDays;
+
+  /** Whether the prefetcher has been cancelled. */
+  private boolean cancelled;
+
+  /**
+   * Constructor.
+   *
+   * @param eventTimeRetriever The retriever from which to compute the meeting
+   *          times.
+   * @param attendees The attendees of the meeting.
+   * @param context The application context.
+   */
+  public MeetingTimesPrefetcher(EventTimeRetriever eventTimeRetriever, List<Attendee> attendees,
+      Context context) {
+    this(eventTimeRetriever, attendees, context, DEFAULT_MAX_ATTENDEE_DAYS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param eventTimeRetriever The retriever from which to compute the meeting
+   *          times.
+   * @param attendees The attendees of the meeting.
+   * @param context The application context.
+   * @param maxAttendeeDays The maximum number of attendee-days to prefetch.
+   */
+  public MeetingTimesPrefetcher(EventTimeRetriever eventTimeRetriever, List<Attendee> attendees,
+      Context context, int maxAttendeeDays) {
+    this.eventTimeRetriever = eventTimeRetriever;
+    this.attendees = attendees;
+    this.context = context;
+    this.maxAttendeeDays = maxAttendeeDays;
+  }
+
+  /**
+   * Start prefetching the windows following the one starting at
+   * {@code startDate}, up to the prefetch depth. Windows already prefetched
+   * aren't prefetched again.
+   *
+   * @param startDate The start of the window currently displayed.
+   */
+  public synchronized void prefetch(Date startDate) {
+    Settings settings = Settings.getInstance();
+    int timeSpan = settings.getTimeSpan();
+    Calendar windowStart = Calendar.getInstance();
+
+    if (cancelled || settings.getPrefetchDepth() == 0 || !isNetworkAllowed())
+      return;
+
+    windowStart.setTime(startDate);
+    for (int i = 0; i < settings.getPrefetchDepth(); ++i) {
+      windowStart.add(Calendar.DAY_OF_YEAR, timeSpan);
+
+      final Date date = windowStart.getTime();
+
+      if (windows.containsKey(date.getTime()))
+        continue;
+      if (attendeeDays + attendees.size() * timeSpan > maxAttendeeDays) {
+        Log.i(MeetingSchedulerConstants.TAG, "Prefetch limit reached, not prefetching "
+            + date);
+        return;
+      }
+
+      attendeeDays += attendees.size() * timeSpan;
+      windows.put(date.getTime(),
+          executor.submit(new Callable<Map<Integer, List<AvailableMeetingTime>>>() {
+            @Override
+            public Map<Integer, List<AvailableMeetingTime>> call() {
+              long start = System.currentTimeMillis();
+              Map<Integer, List<AvailableMeetingTime>> result = eventTimeRetriever
+                  .getAvailableMeetingTimeByLength(attendees, Settings.getInstance()
+                      .getMeetingLengths(), date, context);
+
+              Log.i(MeetingSchedulerConstants.TAG, "Prefetched meeting times from " + date
+                  + " in " + (System.currentTimeMillis() - start) + "ms");
+              return result;
+            }
+          }));
+    }
+  }
+
+  /**
+   * Get the meeting times of a window if they have been prefetched already.
+   * The window is forgotten once returned.
+   *
+   * @param startDate The start of the window.
+   * @return The meeting times of the window mapped by meeting length, or null
+   *         if they haven't been prefetched or are still being prefetched.
+   */
+  public synchronized Map<Integer, List<AvailableMeetingTime>> poll(Date startDate) {
+    Future<Map<Integer, List<AvailableMeetingTime>>> window = windows.get(startDate.getTime());
+
+    if (window == null || !window.isDone())
+      return null;
+    windows.remove(startDate.getTime());
+    return getResult(window);
+  }
+
+  /**
+   * Get the meeting times of a window, waiting for them if they are still
+   * being prefetched as that's quicker than computing them again. The window
+   * is forgotten once returned.
+   *
+   * @param startDate The start of the window.
+   * @return The meeting times of the window mapped by meeting length, or null
+   *         if they haven't been prefetched, the prefetch failed or the
+   *         prefetcher has been cancelled meanwhile.
+   */
+  public Map<Integer, List<AvailableMeetingTime>> take(Date startDate) {
+    Future<Map<Integer, List<AvailableMeetingTime>>> window;
+
+    synchronized (this) {
+      window = windows.remove(startDate.getTime());
+    }
+    return window != null ? getResult(window) : null;
+  }
+
+  /**
+   * Stop prefetching and drop the windows prefetched, e.g when the user
+   * leaves the screen. The prefetcher can't be used anymore.
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+    for (Future<Map<Integer, List<AvailableMeetingTime>>> window : windows.values()) {
+      window.cancel(true);
+    }
+    // Also complete the queued windows already removed by take(), so their
+    // callers don't wait for them forever.
+    for (Runnable task : executor.shutdownNow()) {
+      if (task instanceof Future<?>)
+        ((Future<?>) task).cancel(true);
+    }
+    windows.clear();
+  }
+
+  /**
+   * @return The result of a prefetched window, or null if it failed.
+   */
+  private Map<Integer, List<AvailableMeetingTime>> getResult(
+      Future<Map<Integer, List<AvailableMeetingTime>>> window) {
+    try {
+      return window.get();
+    } catch (ExecutionException e) {
+      Log.e(MeetingSchedulerConstants.TAG, "Exception occured while prefetching meeting times: "
+          + e.getCause());
+    } catch (CancellationException e) {
+      // The prefetcher has been cancelled, compute the window again.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return null;
+  }
+
+  /**
+   * @return Whether the current network can be used for prefetching.
+   */
+  private boolean isNetworkAllowed() {
+    ConnectivityManager connectivity = (ConnectivityManager) context
+        .getSystemService(Context.CONNECTIVITY_SERVICE);
+    NetworkInfo network = connectivity.getActiveNetworkInfo();
+
+    if (network == null || !network.isConnected() || !connectivity.getBackgroundDataSetting())
+      return false;
+    return !Settings.getInstance().doPrefetchOnWifiOnly()
+        || network.getType() == ConnectivityManager.TYPE_WIFI;
+  }
+
+}
@@ -36,6 +36,10 @@ public class MockAttendeeRetriever implements AttendeeRetriever {
     return attendees;
   }
 
+  public void getPossibleAttendees(AttendeeListener listener) {
+    listener.onAttendees(getPossibleAttendees(), true);
+  }
+
   public Attendee getCurrentUser() {
     return new Attendee("Nicolas Garnier", "nivco@google.com", null);
   }
@@ -54,6 +54,39 @@ public class MockBusyTimeRetriever implements BusyTimesRetriever {
     return result;
   }
 
+  @Override
+  public Map<Attendee, List<Busy>> getBusyTimes(List<Attendee> attendees,
+      Date startDate, int timeSpan, Context context) {
+    return getBusyTimes(attendees, startDate, context);
+  }
+
+  @Override
+  public BusyTimesResult getBusyIntervals(List<Attendee> attendees,
+      Date startDate, int timeSpan, Context context) {
+    BusyTimesResult result = new BusyTimesResult();
+
+    for (Map.Entry<Attendee, List<Busy>> entry : getBusyTimes(attendees, startDate, context)
+        .entrySet()) {
+      result.put(entry.getKey(), TimeIntervals.fromBusyTimes(entry.getValue()));
+    }
+
+    return result;
+  }
+
+  @Override
+  public BusyTimesResult getBusyIntervals(List<Attendee> attendees,
+      Date startDate, int timeSpan, Context context, BusyTimesListener listener) {
+    BusyTimesResult result = getBusyIntervals(attendees, startDate, timeSpan, context);
+
+    if (listener != null) {
+      for (Map.Entry<Attendee, TimeIntervals> entry : result.entrySet()) {
+        listener.onBusyTimes(entry.getKey(), entry.getValue());
+      }
+    }
+
+    return result;
+  }
+
   /**
    * Create a {@link Busy} object from {@code start} to {@code end}.
    * 
@@ -19,9 +19,14 @@ package com.google.android.apps.meetingscheduler;
 import android.content.Context;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Retrieves fake available meeting time for testing purposes.
@@ -30,6 +35,9 @@ import java.util.List;
  */
 public class MockEventTimeRetriever implements EventTimeRetriever {
 
+  /** Number of milliseconds in a day. */
+  private static final long DAY = 24 * 60 * 60 * 1000;
+
   public List<AvailableMeetingTime> getAvailableMeetingTime(
       List<Attendee> attendees, Date startDate, Context context) {
     List<AvailableMeetingTime> availableMeetingTimes = new ArrayList<AvailableMeetingTime>();
@@ -53,4 +61,68 @@ public class MockEventTimeRetriever implements EventTimeRetriever {
         .getTime(), new GregorianCalendar(2010, 11, 24, 16, 00).getTime(), attendees));
     return availableMeetingTimes;
   }
+
+  public Map<Integer, List<AvailableMeetingTime>> getAvailableMeetingTimeByLength(
+      List<Attendee> attendees, int[] meetingLengths, Date startDate, Context context) {
+    Map<Integer, List<AvailableMeetingTime>> result = new HashMap<Integer, List<AvailableMeetingTime>>();
+    for (int meetingLength : meetingLengths) {
+      List<AvailableMeetingTime> availableMeetingTimes = new ArrayList<AvailableMeetingTime>();
+      for (AvailableMeetingTime availableMeetingTime : getAvailableMeetingTime(attendees,
+          startDate, context)) {
+        long length = availableMeetingTime.end.getTime() - availableMeetingTime.start.getTime();
+        if (length >= meetingLength * 60000L)
+          availableMeetingTimes.add(availableMeetingTime);
+      }
+      result.put(meetingLength, availableMeetingTimes);
+    }
+    return result;
+  }
+
+  public Iterator<Map<Integer, List<AvailableMeetingTime>>> getAvailableMeetingTimeIterator(
+      List<Attendee> attendees, int[] meetingLengths, Date startDate, Context context) {
+    return Collections.singletonList(
+        getAvailableMeetingTimeByLength(attendees, meetingLengths, startDate, context))
+        .iterator();
+  }
+
+  public Iterator<Map<Integer, List<AvailableMeetingTime>>> getAvailableMeetingTimeIterator(
+      List<Attendee> attendees, int[] meetingLengths, Date startDate, Context context,
+      AvailableMeetingTimesListener listener) {
+    return getAvailableMeetingTimeIterator(attendees, meetingLengths, startDate, context);
+  }
+
+  public List<AvailableMeetingTime> getQuorumMeetingTime(List<Attendee> attendees,
+      int minAttendees, Date startDate, Context context) {
+    List<AvailableMeetingTime> availableMeetingTimes = getAvailableMeetingTime(attendees,
+        startDate, context);
+    for (AvailableMeetingTime availableMeetingTime : availableMeetingTimes) {
+      availableMeetingTime.missingAttendees = new ArrayList<Attendee>();
+    }
+    return availableMeetingTimes;
+  }
+
+  public List<AvailableMeetingTime> getBestMeetingTime(List<Attendee> attendees,
+      Date startDate, int count, final MeetingTimeScorer scorer, Context context) {
+    final int meetingLength = Settings.getInstance().getMeetingLength();
+    List<AvailableMeetingTime> availableMeetingTimes = getAvailableMeetingTime(attendees,
+        startDate, context);
+    // Index the days of the fake meeting times rather than the days from
+    // startDate, which the fake meeting times don't depend on.
+    long first = Long.MAX_VALUE;
+    long last = Long.MIN_VALUE;
+    for (AvailableMeetingTime availableMeetingTime : availableMeetingTimes) {
+      first = Math.min(first, availableMeetingTime.start.getTime());
+      last = Math.max(last, availableMeetingTime.end.getTime());
+    }
+    final DayIndex days = new DayIndex(CalendarServiceManager.getInstance().getTimeZone(),
+        first, (int) ((last - first) / DAY) + 2);
+    Collections.sort(availableMeetingTimes, new Comparator<AvailableMeetingTime>() {
+      public int compare(AvailableMeetingTime lhs, AvailableMeetingTime rhs) {
+        return Double.compare(
+            scorer.score(rhs.start.getTime(), rhs.end.getTime(), meetingLength, days),
+            scorer.score(lhs.start.getTime(), lhs.end.getTime(), meetingLength, days));
+      }
+    });
+    return availableMeetingTimes.subList(0, Math.min(count, availableMeetingTimes.size()));
+  }
 }
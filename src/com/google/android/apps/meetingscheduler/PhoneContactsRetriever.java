@@ -18,19 +18,19 @@ package com.google.android.apps.meetingscheduler;
 
 import android.accounts.Account;
 import android.app.Activity;
-import android.content.ContentResolver;
 import android.content.ContentUris;
-import android.content.Context;
-import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.net.Uri;
-import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Email;
 import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Get the contacts from the phone for the selected account.
@@ -39,6 +39,18 @@ import java.util.List;
  */
 public class PhoneContactsRetriever implements AttendeeRetriever {
 
+  /** Number of contacts in the first page, about a screenful. */
+  private static final int FIRST_PAGE_SIZE = 20;
+
+  /** Number of contacts in the next pages. */
+  private static final int PAGE_SIZE = 500;
+
+  /** Number of contacts resolved again together. */
+  private static final int ID_BATCH_SIZE = 500;
+
+  /** Lock of the snapshots of the accounts. */
+  private static final Object SNAPSHOT_LOCK = new Object();
+
   private Activity activity;
   private Account account;
 
@@ -49,35 +61,135 @@ public class PhoneContactsRetriever implements AttendeeRetriever {
 
   @Override
   public List<Attendee> getPossibleAttendees() {
-    List<Attendee> result = new ArrayList<Attendee>();
-    ContentResolver cr = activity.getContentResolver();
-    Cursor cursor = cr.query(ContactsContract.Contacts.CONTENT_URI, new String[] { Contacts._ID,
-        Contacts.DISPLAY_NAME, Contacts.IN_VISIBLE_GROUP }, Contacts.IN_VISIBLE_GROUP + " = 1",
-        null, null);
+    final List<Attendee> result = new ArrayList<Attendee>();
 
-    try {
-      if (cursor.getCount() > 0) {
-        while (cursor.moveToNext()) {
-          long id = cursor.getLong(cursor.getColumnIndex(Contacts._ID));
-          String email = getEmail(cr, id);
+    getPossibleAttendees(new AttendeeListener() {
+      @Override
+      public void onAttendees(List<Attendee> attendees, boolean last) {
+        result.addAll(attendees);
+      }
+    });
+    return result;
+  }
 
-          if (email != null) {
-            String name = cursor.getString(cursor.getColumnIndex(Contacts.DISPLAY_NAME));
-            String imageUri = getPhotoUri(activity, cr, id);
+  /**
+   * Read the name, the email addresses and the photo of every visible contact
+   * in a single query on the data table, sorted by name. The contacts are
+   * published as soon as a page is full, the first page being a screenful,
+   * so only a page and the cursor window are held while reading. The contacts
+   * are then stored in the snapshot of the account.
+   */
+  @Override
+  public void getPossibleAttendees(AttendeeListener listener) {
+    final List<AttendeeSnapshot.Entry> entries = new ArrayList<AttendeeSnapshot.Entry>();
+    final Pager pager = new Pager(listener);
+    long start = System.currentTimeMillis();
+    Attendee current = getCurrentUser();
+    int count;
 
-            result.add(new Attendee(name + " (" + email + ")", email, imageUri));
-          }
+    current.selected = true;
+    pager.add(current);
+    synchronized (SNAPSHOT_LOCK) {
+      final Map<Long, Long> versions = getContactVersions();
+
+      resolveContacts(null, versions, new EntryHandler() {
+        @Override
+        public void onEntry(AttendeeSnapshot.Entry entry) {
+          entries.add(entry);
+          versions.remove(entry.contactId);
+          pager.add(toAttendee(entry));
         }
-      } else
-        Log.e(MeetingSchedulerConstants.TAG, "No contacts found.");
-    } finally {
-      cursor.close();
+      });
+      // Remember the versions of the contacts without emails too.
+      for (Map.Entry<Long, Long> version : versions.entrySet()) {
+        entries.add(new AttendeeSnapshot.Entry(version.getKey(), version.getValue(), null, null, 0));
+      }
+      new AttendeeSnapshot(activity, account).write(entries);
+      // Publish every page before a refresh can publish the attendees again.
+      count = pager.finish();
     }
-    Attendee current = getCurrentUser();
-    current.selected = true;
-    result.add(current);
 
-    return result;
+    // The current user is always there.
+    if (count == 1)
+      Log.e(MeetingSchedulerConstants.TAG, "No contacts found.");
+    else
+      Log.i(MeetingSchedulerConstants.TAG, "Loaded " + (count - 1) + " contact(s) in "
+          + (System.currentTimeMillis() - start) + "ms");
+  }
+
+  /**
+   * @return The attendees stored in the snapshot of the account, or null if
+   *         there is no snapshot.
+   */
+  public List<Attendee> getCachedAttendees() {
+    List<AttendeeSnapshot.Entry> entries;
+
+    synchronized (SNAPSHOT_LOCK) {
+      entries = new AttendeeSnapshot(activity, account).read();
+    }
+    if (entries == null)
+      return null;
+    return toAttendees(entries);
+  }
+
+  /**
+   * Resolve again the contacts of the snapshot of the account whose version
+   * changed, add the new contacts and remove the deleted ones, then store the
+   * snapshot.
+   *
+   * @return The attendees, or null if no contact changed or there is no
+   *         snapshot.
+   */
+  public List<Attendee> refreshAttendees() {
+    synchronized (SNAPSHOT_LOCK) {
+      AttendeeSnapshot snapshot = new AttendeeSnapshot(activity, account);
+      List<AttendeeSnapshot.Entry> entries = snapshot.read();
+
+      if (entries == null)
+        return null;
+
+      long start = System.currentTimeMillis();
+      Map<Long, Long> versions = getContactVersions();
+      final List<AttendeeSnapshot.Entry> result = new ArrayList<AttendeeSnapshot.Entry>();
+      Map<Long, Long> changedVersions = new HashMap<Long, Long>(versions);
+      int removedCount = 0;
+
+      for (AttendeeSnapshot.Entry entry : entries) {
+        Long version = versions.get(entry.contactId);
+
+        if (version == null) {
+          ++removedCount;
+        } else if (version == entry.version) {
+          result.add(entry);
+          changedVersions.remove(entry.contactId);
+        }
+      }
+      if (changedVersions.isEmpty() && removedCount == 0)
+        return null;
+
+      // Resolve the changed contacts by batches of IDs.
+      List<Long> changedIds = new ArrayList<Long>(changedVersions.keySet());
+
+      for (int i = 0; i < changedIds.size(); i += ID_BATCH_SIZE) {
+        resolveContacts(changedIds.subList(i, Math.min(i + ID_BATCH_SIZE, changedIds.size())),
+            changedVersions, new EntryHandler() {
+              @Override
+              public void onEntry(AttendeeSnapshot.Entry entry) {
+                result.add(entry);
+              }
+            });
+      }
+      for (AttendeeSnapshot.Entry entry : result) {
+        changedVersions.remove(entry.contactId);
+      }
+      for (Map.Entry<Long, Long> version : changedVersions.entrySet()) {
+        result.add(new AttendeeSnapshot.Entry(version.getKey(), version.getValue(), null, null, 0));
+      }
+      snapshot.write(result);
+      Log.i(MeetingSchedulerConstants.TAG, "Refreshed " + changedIds.size() + " and removed "
+          + removedCount + " contact(s) in " + (System.currentTimeMillis() - start) + "ms");
+      return toAttendees(result);
+    }
   }
 
   @Override
@@ -86,48 +198,125 @@ public class PhoneContactsRetriever implements AttendeeRetriever {
   }
 
   /**
-   * Get the correct email address to use for the current contact.
+   * Read the name, the email addresses and the photo of the visible contacts
+   * in a single query on the data table, sorted by name then by contact so
+   * that the email of each contact is chosen in one pass.
    * 
-   * @param cr
-   * @param id
-   * @return
+   * @param ids The IDs of the contacts to resolve, or null for every contact.
+   * @param versions The versions of the contacts, mapped by ID.
+   * @param handler The handler of the contacts having an email.
    */
-  private String getEmail(ContentResolver cr, long id) {
-    Cursor cursor = cr.query(ContactsContract.CommonDataKinds.Email.CONTENT_URI, new String[] {
-        Email.DATA, Email.IS_PRIMARY }, Email.CONTACT_ID + " = '" + id + "'", null,
-        Email.IS_PRIMARY + " DESC");
-    String result = null;
-
-    if (cursor != null) {
-      try {
-        if (cursor.getCount() > 0) {
-          while (cursor.moveToNext()) {
-            String email = cursor.getString(cursor.getColumnIndex(Email.DATA));
-
-            if (!email.contains("@"))
-              continue;
-            // Get the first same-domain account.
-            if (isSameDomain(account.name, email))
-              return email;
-            // Else, get the first gmail address.
-            else if (isSameDomain("@gmail.com", email) && result == null)
-              result = email;
-          }
-          // If none of the above has been found, use the first email address.
-          if (result == null) {
-            if (cursor.moveToFirst()) {
-              result = cursor.getString(cursor.getColumnIndex(Email.DATA));
-            }
-          }
+  private void resolveContacts(List<Long> ids, Map<Long, Long> versions, EntryHandler handler) {
+    StringBuilder selection = new StringBuilder(Data.MIMETYPE + " = ? AND "
+        + Data.IN_VISIBLE_GROUP + " = 1");
+
+    if (ids != null) {
+      selection.append(" AND ").append(Data.CONTACT_ID).append(" IN (");
+      for (int i = 0; i < ids.size(); ++i) {
+        selection.append(i > 0 ? "," : "").append(ids.get(i));
+      }
+      selection.append(')');
+    }
+
+    Cursor cursor = activity.getContentResolver().query(Data.CONTENT_URI, new String[] {
+        Data.CONTACT_ID, Data.DISPLAY_NAME, Data.PHOTO_ID, Email.DATA }, selection.toString(),
+        new String[] { Email.CONTENT_ITEM_TYPE }, Data.DISPLAY_NAME + " COLLATE LOCALIZED, "
+            + Data.CONTACT_ID + ", " + Email.IS_PRIMARY + " DESC, " + Data._ID);
+
+    if (cursor == null)
+      return;
+
+    try {
+      int idColumn = cursor.getColumnIndex(Data.CONTACT_ID);
+      int nameColumn = cursor.getColumnIndex(Data.DISPLAY_NAME);
+      int photoColumn = cursor.getColumnIndex(Data.PHOTO_ID);
+      int emailColumn = cursor.getColumnIndex(Email.DATA);
+      EmailChooser chooser = new EmailChooser();
+      long id = -1;
+      String name = null;
+      long photoId = 0;
+
+      while (cursor.moveToNext()) {
+        if (cursor.getLong(idColumn) != id) {
+          addEntry(handler, versions, id, name, photoId, chooser.getEmail());
+          id = cursor.getLong(idColumn);
+          name = cursor.getString(nameColumn);
+          photoId = cursor.getLong(photoColumn);
+          chooser.reset();
         }
-      } finally {
-        cursor.close();
+        chooser.add(cursor.getString(emailColumn));
+      }
+      addEntry(handler, versions, id, name, photoId, chooser.getEmail());
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Hand a contact to the handler if an email address has been found.
+   */
+  private void addEntry(EntryHandler handler, Map<Long, Long> versions, long id, String name,
+      long photoId, String email) {
+    if (email == null)
+      return;
+
+    Long version = versions.get(id);
+
+    handler.onEntry(new AttendeeSnapshot.Entry(id, version != null ? version : 0, name, email,
+        photoId));
+  }
+
+  /**
+   * @return The version of every contact, made of the IDs and versions of its
+   *         raw contacts, mapped by contact ID.
+   */
+  private Map<Long, Long> getContactVersions() {
+    Map<Long, Long> result = new HashMap<Long, Long>();
+    Cursor cursor = activity.getContentResolver().query(RawContacts.CONTENT_URI,
+        new String[] { RawContacts.CONTACT_ID, RawContacts._ID, RawContacts.VERSION },
+        RawContacts.DELETED + " = 0", null, RawContacts.CONTACT_ID + ", " + RawContacts._ID);
+
+    if (cursor == null)
+      return result;
+
+    try {
+      while (cursor.moveToNext()) {
+        long contactId = cursor.getLong(0);
+        Long version = result.get(contactId);
+        long hash = version != null ? version : 17;
+
+        hash = hash * 31 + cursor.getLong(1);
+        hash = hash * 31 + cursor.getLong(2);
+        result.put(contactId, hash);
       }
+    } finally {
+      cursor.close();
     }
+    return result;
+  }
 
+  /**
+   * @return The attendees of the contacts having an email, and the current
+   *         user, selected.
+   */
+  private List<Attendee> toAttendees(List<AttendeeSnapshot.Entry> entries) {
+    List<Attendee> result = new ArrayList<Attendee>(entries.size() + 1);
+    Attendee current = getCurrentUser();
+
+    current.selected = true;
+    result.add(current);
+    for (AttendeeSnapshot.Entry entry : entries) {
+      if (entry.email != null)
+        result.add(toAttendee(entry));
+    }
     return result;
   }
 
+  private Attendee toAttendee(AttendeeSnapshot.Entry entry) {
+    return new Attendee(entry.name + " (" + entry.email + ")", entry.email, getPhotoUri(
+        entry.contactId, entry.photoId));
+  }
+
   /**
    * Check if two emails are of the same domain.
    * 
@@ -142,25 +331,102 @@ public class PhoneContactsRetriever implements AttendeeRetriever {
   /**
    * Get the contact's Photo URI if it exists.
    * 
-   * @param cr
-   * @param id
-   * @return The contact's Photo URI.
+   * @param id The ID of the contact.
+   * @param photoId The ID of the photo of the contact, 0 if none.
+   * @return The contact's Photo URI, or null.
    */
-  private String getPhotoUri(Context context, ContentResolver cr, long id) {
+  private String getPhotoUri(long id, long photoId) {
+    if (photoId == 0)
+      return null;
+
     Uri contactUri = ContentUris.withAppendedId(Contacts.CONTENT_URI, id);
-    Uri photoUri = Uri.withAppendedPath(contactUri, Contacts.Photo.CONTENT_DIRECTORY);
 
-    // TODO: Do not try to open the file to check if it exists.
-    try {
-      AssetFileDescriptor descriptor = context.getContentResolver().openAssetFileDescriptor(
-          photoUri, "r");
+    return Uri.withAppendedPath(contactUri, Contacts.Photo.CONTENT_DIRECTORY).toString();
+  }
 
-      descriptor.close();
-      return photoUri.toString();
-    } catch (Exception e) {
-      // The contact has no pictures.
-      return null;
+  /**
+   * Publishes the attendees by pages, the first one being a screenful.
+   */
+  private static class Pager {
+
+    private final AttendeeListener listener;
+    private List<Attendee> page = new ArrayList<Attendee>();
+    private int count;
+
+    public Pager(AttendeeListener listener) {
+      this.listener = listener;
     }
+
+    public void add(Attendee attendee) {
+      page.add(attendee);
+      if (page.size() >= (count == 0 ? FIRST_PAGE_SIZE : PAGE_SIZE)) {
+        count += page.size();
+        listener.onAttendees(page, false);
+        page = new ArrayList<Attendee>();
+      }
+    }
+
+    /**
+     * Publish the last page.
+     *
+     * @return The number of attendees published.
+     */
+    public int finish() {
+      count += page.size();
+      listener.onAttendees(page, true);
+      return count;
+    }
+
+  }
+
+  /**
+   * Receives the contacts resolved as attendees.
+   */
+  private interface EntryHandler {
+    public void onEntry(AttendeeSnapshot.Entry entry);
+  }
+
+  /**
+   * Chooses the email address to use for a contact among their addresses, fed
+   * primary address first: the first same-domain address, else the first
+   * gmail address, else the first address.
+   */
+  private class EmailChooser {
+
+    private final String domain = account.name.substring(account.name.indexOf('@'));
+
+    private String sameDomainEmail;
+    private String gmailEmail;
+    private String firstEmail;
+
+    public void reset() {
+      sameDomainEmail = null;
+      gmailEmail = null;
+      firstEmail = null;
+    }
+
+    public void add(String email) {
+      if (email == null)
+        return;
+      if (firstEmail == null)
+        firstEmail = email;
+      if (sameDomainEmail != null || !email.contains("@"))
+        return;
+      if (isSameDomain(domain, email))
+        sameDomainEmail = email;
+      else if (gmailEmail == null && isSameDomain("@gmail.com", email))
+        gmailEmail = email;
+    }
+
+    /**
+     * @return The chosen email address, or null if the contact has none.
+     */
+    public String getEmail() {
+      if (sameDomainEmail != null)
+        return sameDomainEmail;
+      return gmailEmail != null ? gmailEmail : firstEmail;
+    }
+
   }
 
 }
@@ -17,18 +17,25 @@
 package com.google.android.apps.meetingscheduler;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.ProgressDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.res.Configuration;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.Window;
 import android.widget.Button;
 import android.widget.ExpandableListView;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.google.api.data.calendar.v2.CalendarApiInfo;
@@ -37,8 +44,13 @@ import java.io.NotSerializableException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Activity Screen where the user selects the meeting time between the meeting
@@ -51,6 +63,9 @@ public class SelectMeetingTimeActivity extends Activity {
   /** The constant to store the selectedAttendees list in an intent */
   private static final String SELECTED_ATTENDEES = "SELECTED_ATTENDEES";
 
+  /** The constant to store the time the search was asked for in an intent */
+  private static final String FIND_MEETING_TIME = "FIND_MEETING_TIME";
+
   /** The application settings */
   // TODO: Change this so it is saved in memory and also add a settings
   // configuration page accessible by the menu.
@@ -61,7 +76,20 @@ public class SelectMeetingTimeActivity extends Activity {
 
   private List<Attendee> selectedAttendees;
 
-  private List<AvailableMeetingTime> availableMeetingTimes;
+  /** The available meeting times found so far, mapped by meeting length */
+  private Map<Integer, List<AvailableMeetingTime>> availableMeetingTimes;
+
+  /**
+   * The provisional meeting times computed while the last busy times are being
+   * retrieved, mapped by meeting length, or null
+   */
+  private Map<Integer, List<AvailableMeetingTime>> provisionalMeetingTimes;
+
+  /** Prefetches the meeting times of the next windows, or null */
+  private MeetingTimesPrefetcher prefetcher;
+
+  /** The adapter displaying the available meeting times */
+  private EventExpandableListAdapter meetingListAdapter;
 
   private AuthManager auth;
 
@@ -69,6 +97,12 @@ public class SelectMeetingTimeActivity extends Activity {
 
   private Handler handler = new Handler();
 
+  /**
+   * The time the search was asked for, in milliseconds since boot, or 0 once
+   * the first meeting times have been displayed
+   */
+  private long findMeetingTime;
+
   /** The date from which to start to look for available meeting times */
   private Calendar startDate;
 
@@ -98,12 +132,13 @@ public class SelectMeetingTimeActivity extends Activity {
     // Getting the selectedAttendees list from the intent
     final Intent intent = getIntent();
     selectedAttendees = (List<Attendee>) intent.getSerializableExtra(SELECTED_ATTENDEES);
+    findMeetingTime = intent.getLongExtra(FIND_MEETING_TIME, SystemClock.elapsedRealtime());
 
     // Create a new Authentication Manager to authenticate in the Calendar API.
     auth = new AuthManager(this, MeetingSchedulerConstants.GET_LOGIN, null, true,
         CalendarApiInfo.AUTH_TOKEN_TYPE);
 
-    availableMeetingTimes = new ArrayList<AvailableMeetingTime>();
+    availableMeetingTimes = new HashMap<Integer, List<AvailableMeetingTime>>();
 
     startDate = GregorianCalendar.getInstance();
     startDate.add(Calendar.DAY_OF_YEAR, 1);
@@ -131,6 +166,7 @@ public class SelectMeetingTimeActivity extends Activity {
       throw new NotSerializableException();
     }
     intent.putExtra(SELECTED_ATTENDEES, (Serializable) selectedAttendees);
+    intent.putExtra(FIND_MEETING_TIME, SystemClock.elapsedRealtime());
     Log.e(MeetingSchedulerConstants.TAG,
         "Successfully serialized List<Attendee> selectedAttendees in the intent");
     intent.setClass(context, SelectMeetingTimeActivity.class);
@@ -178,7 +214,7 @@ public class SelectMeetingTimeActivity extends Activity {
       public void onClick(View v) {
         if (auth.getAuthToken() != null) {
           startDate.add(Calendar.DAY_OF_YEAR, Settings.getInstance().getTimeSpan());
-          findMeetings();
+          findMoreMeetings();
         } else
           authenticate();
       }
@@ -207,50 +243,311 @@ public class SelectMeetingTimeActivity extends Activity {
     } else {
       CalendarServiceManager.getInstance().setAuthToken(auth.getAuthToken());
 
-      eventTimeRetriever = new CommonFreeTimesRetriever(new FreeBusyTimesRetriever());
+      eventTimeRetriever = new CommonFreeTimesRetriever(
+          SingleFlightBusyTimesRetriever.getInstance(this));
+      if (prefetcher != null)
+        prefetcher.cancel();
+      prefetcher = new MeetingTimesPrefetcher(eventTimeRetriever, selectedAttendees,
+          getApplicationContext());
       findMeetings();
     }
   }
 
   /**
-   * Find available meetings time.
+   * Drops the prefetched meeting times as the user won't ask for them.
+   */
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    if (prefetcher != null)
+      prefetcher.cancel();
+  }
+
+  /**
+   * Initialize the contents of the Activity's options menu.
+   */
+  @Override
+  public boolean onCreateOptionsMenu(Menu menu) {
+    MenuInflater inflater = getMenuInflater();
+    inflater.inflate(R.menu.select_meeting_time, menu);
+    return true;
+  }
+
+  /**
+   * Called whenever an item in the options menu is selected.
+   */
+  @Override
+  public boolean onOptionsItemSelected(MenuItem item) {
+    switch (item.getItemId()) {
+    case R.id.meeting_length_menu:
+      chooseMeetingLength();
+      return true;
+    default:
+      return super.onOptionsItemSelected(item);
+    }
+  }
+
+  /**
+   * Lets the user choose another meeting length and displays its meeting
+   * times, which have already been computed along with the current ones.
+   */
+  private void chooseMeetingLength() {
+    final int[] meetingLengths = Settings.getInstance().getMeetingLengths();
+    int current = -1;
+
+    for (int i = 0; i < meetingLengths.length; ++i) {
+      if (meetingLengths[i] == Settings.getInstance().getMeetingLength())
+        current = i;
+    }
+
+    AlertDialog.Builder builder = new AlertDialog.Builder(this);
+    builder.setTitle(R.string.meeting_length);
+    builder.setCancelable(true);
+    builder.setSingleChoiceItems(R.array.meeting_length_array_names, current,
+        new DialogInterface.OnClickListener() {
+          public void onClick(DialogInterface dialog, int which) {
+            dialog.dismiss();
+            Settings.getInstance().setMeetingLength(getApplicationContext(),
+                meetingLengths[which]);
+            if (meetingListAdapter != null)
+              meetingListAdapter.setAvailableMeetingTimes(
+                  getDisplayedMeetingTimes(meetingLengths[which]), meetingLengths[which]);
+          }
+        });
+    builder.show();
+  }
+
+  /**
+   * Find available meetings time. The meeting times of every meeting length
+   * are computed at once so the user can switch between them, and are
+   * displayed one day at a time as they are computed. Provisional meeting
+   * times are displayed while the last attendees are being retrieved.
    */
   private void findMeetings() {
+    final Date windowStart = startDate.getTime();
+
     // Retrieves the common free time on a seperate thread.
     new Thread(new Runnable() {
       public void run() {
-        // Calculating the available meeting times from the selectedAttendees
-        // and
-        // the settings
-        final List<AvailableMeetingTime> newTimes = eventTimeRetriever.getAvailableMeetingTime(
-            selectedAttendees, startDate.getTime(), getApplicationContext());
+        // The window may be being prefetched already.
+        Map<Integer, List<AvailableMeetingTime>> prefetchedTimes = prefetcher.take(windowStart);
+
+        if (prefetchedTimes != null) {
+          publishMeetings(prefetchedTimes);
+        } else {
+          // Calculating the available meeting times from the selectedAttendees
+          // and the settings
+          Iterator<Map<Integer, List<AvailableMeetingTime>>> days = eventTimeRetriever
+              .getAvailableMeetingTimeIterator(selectedAttendees, Settings.getInstance()
+                  .getMeetingLengths(), windowStart, getApplicationContext(),
+                  new AvailableMeetingTimesListener() {
+                    public void onAvailableMeetingTimes(
+                        final Map<Integer, List<AvailableMeetingTime>> meetingTimes,
+                        final int pendingAttendees) {
+                      handler.post(new Runnable() {
+                        public void run() {
+                          populateProvisionalMeetings(meetingTimes, pendingAttendees);
+                          if (progressBar != null)
+                            progressBar.dismiss();
+                        }
+                      });
+                    }
+
+                    public void onFailedAttendees(final List<Attendee> attendees) {
+                      handler.post(new Runnable() {
+                        public void run() {
+                          showFailedAttendees(attendees);
+                        }
+                      });
+                    }
+                  });
+
+          while (days.hasNext()) {
+            publishMeetings(days.next());
+          }
+        }
 
-        // Update the progress bar
         handler.post(new Runnable() {
           public void run() {
-            populateMeetings(newTimes);
+            // Replaces the provisional meeting times even if no day has
+            // meeting times.
+            populateMeetings(Collections.<Integer, List<AvailableMeetingTime>> emptyMap());
             if (progressBar != null)
               progressBar.dismiss();
+            prefetcher.prefetch(windowStart);
           }
         });
       }
     }).start();
-    // Show a progress bar while the common free times are computed.
+    // Show a progress bar until the first day of meeting times is computed.
     progressBar = ProgressDialog.show(this, null, getString(R.string.find_meeting_time_wait_text),
         true);
   }
 
+  /**
+   * Displays meeting times on the UI thread and dismisses the progress bar.
+   * 
+   * @param newTimes The meeting times to display, mapped by meeting length.
+   */
+  private void publishMeetings(final Map<Integer, List<AvailableMeetingTime>> newTimes) {
+    handler.post(new Runnable() {
+      public void run() {
+        populateMeetings(newTimes);
+        if (progressBar != null)
+          progressBar.dismiss();
+      }
+    });
+  }
+
+  /**
+   * Find the available meeting times of the window following the displayed
+   * ones, displaying them at once if they have been prefetched.
+   */
+  private void findMoreMeetings() {
+    Map<Integer, List<AvailableMeetingTime>> prefetchedTimes = prefetcher.poll(startDate
+        .getTime());
+
+    if (prefetchedTimes != null) {
+      populateMeetings(prefetchedTimes);
+      prefetcher.prefetch(startDate.getTime());
+    } else {
+      findMeetings();
+    }
+  }
+
   /**
    * Displays the available meeting times on the screen.
    * 
-   * @param availableMeetingTimes The meeting times to display.
+   * @param newTimes The meeting times to add to the ones found so far, mapped
+   *          by meeting length.
    */
-  private void populateMeetings(List<AvailableMeetingTime> newTimes) {
-    availableMeetingTimes.addAll(newTimes);
+  private void populateMeetings(Map<Integer, List<AvailableMeetingTime>> newTimes) {
+    for (Map.Entry<Integer, List<AvailableMeetingTime>> entry : newTimes.entrySet()) {
+      getAvailableMeetingTimes(entry.getKey()).addAll(entry.getValue());
+    }
+
+    if (provisionalMeetingTimes != null) {
+      // Replace the provisional meeting times by the final ones.
+      provisionalMeetingTimes = null;
+      setCaption(getString(R.string.select_meeting_time_caption));
+      displayMeetings();
+      return;
+    }
+
+    int meetingLength = Settings.getInstance().getMeetingLength();
+    List<AvailableMeetingTime> currentTimes = newTimes.get(meetingLength);
+
     // Adding the available meeting times to the UI
-    ExpandableListView meetingListContainer = (ExpandableListView) findViewById(R.id.meeting_list);
-    meetingListContainer.setAdapter(new EventExpandableListAdapter(this, availableMeetingTimes,
-        Settings.getInstance().getMeetingLength()));
+    if (meetingListAdapter == null) {
+      displayMeetings();
+    } else if (currentTimes != null) {
+      meetingListAdapter.addAvailableMeetingTimes(currentTimes);
+    }
+  }
+
+  /**
+   * Displays provisional meeting times along with the ones found so far. They
+   * are replaced by the next provisional or final meeting times.
+   * 
+   * @param meetingTimes The provisional meeting times, mapped by meeting
+   *          length.
+   * @param pendingAttendees The number of attendees not retrieved yet.
+   */
+  private void populateProvisionalMeetings(Map<Integer, List<AvailableMeetingTime>> meetingTimes,
+      int pendingAttendees) {
+    provisionalMeetingTimes = meetingTimes;
+    setCaption(getString(R.string.provisional_meeting_time_caption, pendingAttendees,
+        selectedAttendees.size()));
+    displayMeetings();
+  }
+
+  /**
+   * Displays the meeting times of the current meeting length, replacing the
+   * displayed ones.
+   */
+  private void displayMeetings() {
+    int meetingLength = Settings.getInstance().getMeetingLength();
+
+    if (findMeetingTime != 0) {
+      Log.i(MeetingSchedulerConstants.TAG, "First meeting times displayed "
+          + (SystemClock.elapsedRealtime() - findMeetingTime) + "ms after Find meeting");
+      findMeetingTime = 0;
+    }
+
+    if (meetingListAdapter == null) {
+      ExpandableListView meetingListContainer = (ExpandableListView) findViewById(R.id.meeting_list);
+
+      meetingListAdapter = new EventExpandableListAdapter(this,
+          getDisplayedMeetingTimes(meetingLength), meetingLength);
+      meetingListContainer.setAdapter(meetingListAdapter);
+    } else {
+      meetingListAdapter.setAvailableMeetingTimes(getDisplayedMeetingTimes(meetingLength),
+          meetingLength);
+    }
+  }
+
+  /**
+   * Tells the user whose availabilities couldn't be retrieved, the meeting
+   * times displayed being accurate for the other attendees only.
+   * 
+   * @param attendees The attendees whose busy times couldn't be retrieved.
+   */
+  private void showFailedAttendees(List<Attendee> attendees) {
+    StringBuilder names = new StringBuilder();
+
+    for (Attendee attendee : attendees) {
+      if (names.length() > 0)
+        names.append(", ");
+      names.append(attendee.name != null ? attendee.name : attendee.email);
+    }
+    Toast.makeText(this, getString(R.string.failed_attendees_text, names), Toast.LENGTH_LONG)
+        .show();
+  }
+
+  /**
+   * Sets the caption displayed in the custom title bar, if any.
+   * 
+   * @param caption The caption to display.
+   */
+  private void setCaption(String caption) {
+    TextView captionView = (TextView) findViewById(R.id.title_caption);
+
+    if (captionView != null)
+      captionView.setText(caption);
+  }
+
+  /**
+   * @param meetingLength The length of the meeting in minutes
+   * @return The available meeting times found so far for the meeting length,
+   *         followed by the provisional ones if any
+   */
+  private List<AvailableMeetingTime> getDisplayedMeetingTimes(int meetingLength) {
+    List<AvailableMeetingTime> provisionalTimes = null;
+
+    if (provisionalMeetingTimes != null)
+      provisionalTimes = provisionalMeetingTimes.get(meetingLength);
+    if (provisionalTimes == null)
+      return getAvailableMeetingTimes(meetingLength);
+
+    List<AvailableMeetingTime> result = new ArrayList<AvailableMeetingTime>(
+        getAvailableMeetingTimes(meetingLength));
+
+    result.addAll(provisionalTimes);
+    return result;
+  }
+
+  /**
+   * @param meetingLength The length of the meeting in minutes
+   * @return The available meeting times found so far for the meeting length
+   */
+  private List<AvailableMeetingTime> getAvailableMeetingTimes(int meetingLength) {
+    List<AvailableMeetingTime> result = availableMeetingTimes.get(meetingLength);
+
+    if (result == null) {
+      result = new ArrayList<AvailableMeetingTime>();
+      availableMeetingTimes.put(meetingLength, result);
+    }
+    return result;
   }
 
 }
\ No newline at end of file
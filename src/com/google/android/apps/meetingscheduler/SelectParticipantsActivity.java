@@ -20,8 +20,10 @@ import android.accounts.Account;
 import android.app.Activity;
 import android.app.ProgressDialog;
 import android.content.res.Configuration;
+import android.database.ContentObserver;
 import android.os.Bundle;
 import android.os.Handler;
+import android.provider.ContactsContract;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
@@ -35,14 +37,17 @@ import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.Filter.FilterListener;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.google.api.data.calendar.v2.CalendarApiInfo;
+
 import java.io.NotSerializableException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Activity Screen where the user selects the meeting attendees.
@@ -51,6 +56,12 @@ import java.util.List;
  */
 public class SelectParticipantsActivity extends Activity {
 
+  /**
+   * Time in milliseconds without a change of the contacts after which the
+   * attendees are refreshed.
+   */
+  private static final long CONTACTS_REFRESH_DELAY = 2000;
+
   /** List of attendees that are selectable */
   private List<Attendee> attendees = new ArrayList<Attendee>();
 
@@ -67,8 +78,32 @@ public class SelectParticipantsActivity extends Activity {
 
   private ProgressDialog progressBar;
 
+  /** Retrieves the busy times of the attendees as they are selected */
+  private BusyTimesWarmer warmer;
+
+  private AuthManager auth;
+
   private Handler handler = new Handler();
 
+  /** Number of the latest retrieval of the attendees */
+  private int attendeesLoad;
+
+  /** Refreshes the attendees once the contacts stop changing */
+  private final Runnable attendeesRefresher = new Runnable() {
+    public void run() {
+      refreshAttendees();
+    }
+  };
+
+  /** Observes the changes of the contacts */
+  private final ContentObserver contactsObserver = new ContentObserver(handler) {
+    @Override
+    public void onChange(boolean selfChange) {
+      handler.removeCallbacks(attendeesRefresher);
+      handler.postDelayed(attendeesRefresher, CONTACTS_REFRESH_DELAY);
+    }
+  };
+
   /**
    * Cancel Activity re-launch when screen orientation changes.
    */
@@ -97,6 +132,9 @@ public class SelectParticipantsActivity extends Activity {
 
     setAttendeeListView();
 
+    getContentResolver().registerContentObserver(ContactsContract.AUTHORITY_URI, true,
+        contactsObserver);
+
     getSettings();
   }
 
@@ -126,6 +164,10 @@ public class SelectParticipantsActivity extends Activity {
           Log.i(MeetingSchedulerConstants.TAG,
               "Find meeting button pressed - about to launch SelectMeeting activity");
 
+          // The attendees not warmed up yet are about to be retrieved anyway.
+          if (warmer != null)
+            warmer.cancelPending();
+
           // the results are called on widgetActivityCallback
           try {
             startActivity(SelectMeetingTimeActivity.createViewIntent(getApplicationContext(),
@@ -169,43 +211,172 @@ public class SelectParticipantsActivity extends Activity {
         Attendee attendee = (Attendee) attendeeListView.getItemAtPosition(position);
         attendee.selected = !attendee.selected;
         attendeeAdapter.sort();
+
+        if (warmer != null) {
+          if (attendee.selected)
+            warmer.addAttendee(attendee);
+          else
+            warmer.removeAttendee(attendee);
+        }
       }
     });
   }
 
   /**
-   * Retrieve the list of attendees.
+   * Retrieve the list of attendees, showing the ones of the snapshot of the
+   * account right away then refreshing them, or showing the first page as
+   * soon as it is read and adding the next ones as they come.
    */
   private void retrieveAttendees() {
+    final int load = ++attendeesLoad;
+    final PhoneContactsRetriever attendeeRetriever = new PhoneContactsRetriever(this, account);
+
+    attendees.clear();
+    attendeeAdapter.sort();
+
     // Retrieves the attendees on a seperate thread.
     new Thread(new Runnable() {
       public void run() {
-        AttendeeRetriever attendeeRetriever = new PhoneContactsRetriever(
-            SelectParticipantsActivity.this, account);
-        final List<Attendee> newAttendees = attendeeRetriever.getPossibleAttendees();
-
-        // Update the progress bar
-        handler.post(new Runnable() {
-          public void run() {
-            if (newAttendees != null) {
-              attendees.clear();
-              attendees.addAll(newAttendees);
-
-              attendeeAdapter.sort();
-              attendeeAdapter.notifyDataSetChanged();
-            }
-
-            if (progressBar != null)
-              progressBar.dismiss();
+        List<Attendee> cachedAttendees = attendeeRetriever.getCachedAttendees();
+
+        if (cachedAttendees != null) {
+          showAttendees(load, cachedAttendees, true, true);
+
+          List<Attendee> refreshedAttendees = attendeeRetriever.refreshAttendees();
+
+          if (refreshedAttendees != null)
+            showAttendees(load, refreshedAttendees, true, true);
+          return;
+        }
+
+        attendeeRetriever.getPossibleAttendees(new AttendeeListener() {
+          private boolean first = true;
+
+          @Override
+          public void onAttendees(List<Attendee> newAttendees, boolean last) {
+            showAttendees(load, newAttendees, first, last);
+            first = false;
           }
         });
       }
     }).start();
-    // Show a progress bar while the common free times are computed.
+    // Show a progress bar until the first page of attendees is shown.
     progressBar = ProgressDialog.show(this, null, getString(R.string.retrieve_contacts_wait_text),
         true);
   }
 
+  /**
+   * Resolve again the contacts which changed since the attendees were
+   * retrieved, and show the attendees again if any did.
+   */
+  private void refreshAttendees() {
+    if (account == null)
+      return;
+
+    final int load = attendeesLoad;
+    final PhoneContactsRetriever attendeeRetriever = new PhoneContactsRetriever(this, account);
+
+    new Thread(new Runnable() {
+      public void run() {
+        List<Attendee> refreshedAttendees = attendeeRetriever.refreshAttendees();
+
+        if (refreshedAttendees != null)
+          showAttendees(load, refreshedAttendees, true, true);
+      }
+    }).start();
+  }
+
+  /**
+   * Show a page of attendees on the UI thread.
+   * 
+   * @param load The number of the retrieval of the attendees, the pages of a
+   *          previous account being dropped.
+   * @param newAttendees The attendees of the page.
+   * @param first True if the page replaces the attendees shown, keeping the
+   *          attendees selected.
+   * @param last True if this is the last page.
+   */
+  private void showAttendees(final int load, final List<Attendee> newAttendees,
+      final boolean first, final boolean last) {
+    handler.post(new Runnable() {
+      public void run() {
+        if (load != attendeesLoad)
+          return;
+
+        if (first) {
+          if (!attendees.isEmpty())
+            keepSelection(newAttendees);
+          attendees.clear();
+        }
+        attendees.addAll(newAttendees);
+        attendeeAdapter.sort();
+
+        if (first && progressBar != null)
+          progressBar.dismiss();
+        if (last)
+          syncSnapshot();
+      }
+    });
+  }
+
+  /**
+   * Select the attendees whose email is the one of a selected attendee shown.
+   * 
+   * @param newAttendees The attendees replacing the ones shown.
+   */
+  private void keepSelection(List<Attendee> newAttendees) {
+    Set<String> selectedEmails = new HashSet<String>();
+
+    for (Attendee attendee : getSelectedAttendees()) {
+      selectedEmails.add(attendee.email);
+    }
+    for (Attendee attendee : newAttendees) {
+      attendee.selected = selectedEmails.contains(attendee.email);
+    }
+  }
+
+  /**
+   * Start warming up the busy times of the attendees of the account as they
+   * are selected, once authenticated without bothering the user.
+   */
+  private void startWarmer() {
+    if (warmer != null)
+      warmer.cancel();
+    warmer = new BusyTimesWarmer(SingleFlightBusyTimesRetriever.getInstance(this),
+        getApplicationContext());
+
+    auth = new AuthManager(this, MeetingSchedulerConstants.GET_LOGIN, null, true,
+        CalendarApiInfo.AUTH_TOKEN_TYPE);
+    auth.doSilentLogin(new Runnable() {
+      public void run() {
+        CalendarServiceManager.getInstance().setAuthToken(auth.getAuthToken());
+        syncSnapshot();
+      }
+    }, account);
+  }
+
+  /**
+   * Build the busy times snapshot of the attendees in the background if it is
+   * stale, once both the attendees and the authentication are available.
+   */
+  private void syncSnapshot() {
+    FreeBusySnapshotSync.getInstance(this).syncIfStale(attendees);
+  }
+
+  /**
+   * Stop warming up the busy times and observing the contacts.
+   */
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    getContentResolver().unregisterContentObserver(contactsObserver);
+    handler.removeCallbacks(attendeesRefresher);
+    if (warmer != null)
+      warmer.cancel();
+    if (attendeeAdapter != null)
+      attendeeAdapter.cancelPhotos();
+  }
+
   /**
    * Add on text changed listener to filter the attendee list view.
    */
@@ -216,15 +387,7 @@ public class SelectParticipantsActivity extends Activity {
       @Override
       public void onTextChanged(CharSequence s, int start, int before, int count) {
         if (attendeeAdapter != null) {
-          attendeeAdapter.getFilter().filter(s, new FilterListener() {
-            @Override
-            /**
-             * Sort the array once the filter has been completed.
-             */
-            public void onFilterComplete(int count) {
-              attendeeAdapter.sort();
-            }
-          });
+          attendeeAdapter.getFilter().filter(s);
         }
 
       }
@@ -352,6 +515,7 @@ public class SelectParticipantsActivity extends Activity {
     if (!settings.getAccount().equals(account)) {
       account = settings.getAccount();
       retrieveAttendees();
+      startWarmer();
     }
     setFindMeetingButtonText();
   }
@@ -3,16 +3,18 @@ package com.google.android.apps.meetingscheduler;
 
 import android.content.Context;
 import android.graphics.Color;
-import android.net.Uri;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
 import android.widget.CheckBox;
+import android.widget.Filter;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -25,15 +27,42 @@ public class SelectableAttendeeAdapter extends ArrayAdapter<Attendee> {
   /** Inflater used to create Views from layouts */
   private LayoutInflater inflater;
 
+  /** All the attendees */
+  private final List<Attendee> attendees;
+
+  /** The attendees matching the filter, shown by the adapter */
+  private final List<Attendee> shownAttendees;
+
+  /** Search index of the attendees used by the filter */
+  private final AttendeeSearchIndex index = new AttendeeSearchIndex();
+
+  /** The filter of the attendees */
+  private Filter filter;
+
+  /** The current filter text */
+  private CharSequence query = "";
+
+  /** Loads the photos of the attendees in the background */
+  private final ContactPhotoLoader photoLoader;
+
   /**
    * Constructor.
    * 
    * @param context Used by super class.
-   * @param items Used by super class.
+   * @param items All the attendees, of which the ones matching the filter are
+   *          shown.
    */
   public SelectableAttendeeAdapter(Context context, List<Attendee> items) {
-    super(context, R.layout.selectable_attendee, items);
+    this(context, items, new ArrayList<Attendee>());
+  }
 
+  private SelectableAttendeeAdapter(Context context, List<Attendee> items,
+      List<Attendee> shownItems) {
+    super(context, R.layout.selectable_attendee, shownItems);
+
+    attendees = items;
+    shownAttendees = shownItems;
+    photoLoader = new ContactPhotoLoader(context.getContentResolver());
     inflater = (LayoutInflater) getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
   }
 
@@ -99,14 +128,12 @@ public class SelectableAttendeeAdapter extends ArrayAdapter<Attendee> {
    */
   private void setPhotoView(Attendee item, LinearLayout attendeeView) {
     ImageView photoView = (ImageView) attendeeView.findViewById(R.id.attendee_photo);
+    ViewGroup.LayoutParams params = photoView.getLayoutParams();
 
-    // TODO(alainv): Change this or use other type to store attendee's photo,
-    // e.g URI?.
-    if (item.photoUri == null) {
-      photoView.setImageResource(R.drawable.attendee_icon);
-    } else {
-      photoView.setImageURI(Uri.parse(item.photoUri));
-    }
+    // The photo is decoded at the size of the row, replacing the pending load
+    // of the attendee previously shown in the recycled row.
+    photoLoader.load(photoView, item.photoUri, params != null ? Math.max(params.width,
+        params.height) : 0, R.drawable.attendee_icon);
   }
 
   /**
@@ -128,11 +155,72 @@ public class SelectableAttendeeAdapter extends ArrayAdapter<Attendee> {
   }
 
   /**
-   * Sort the array using the AttendeeComparator.
+   * Sort the attendees using the AttendeeComparator and show the ones matching
+   * the filter. Must be called whenever the attendees change.
    */
   public void sort() {
-    super.sort(AttendeeComparator.Comparator);
-    super.notifyDataSetChanged();
+    Collections.sort(attendees, AttendeeComparator.Comparator);
+    index.update(attendees);
+    showMatchingAttendees();
+  }
+
+  /**
+   * Stop loading the photos of the attendees and release the cached ones.
+   */
+  public void cancelPhotos() {
+    photoLoader.cancel();
+  }
+
+  /**
+   * Return the filter searching the attendees in the search index. The
+   * results are computed on the filtering thread and cached by the index, so
+   * they are only looked up again when published.
+   */
+  @Override
+  public Filter getFilter() {
+    if (filter == null) {
+      filter = new Filter() {
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+          FilterResults results = new FilterResults();
+          int[] ids = index.search(constraint != null ? constraint : "");
+
+          results.values = ids;
+          results.count = ids != null ? ids.length : attendees.size();
+          return results;
+        }
+
+        @Override
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+          query = constraint != null ? constraint.toString() : "";
+          showMatchingAttendees();
+        }
+      };
+    }
+    return filter;
+  }
+
+  /**
+   * Show the attendees matching the filter, in the order of the attendees.
+   */
+  private void showMatchingAttendees() {
+    int[] ids = index.search(query);
+
+    shownAttendees.clear();
+    if (ids == null) {
+      shownAttendees.addAll(attendees);
+    } else {
+      boolean[] matches = new boolean[attendees.size()];
+
+      for (int id : ids) {
+        matches[index.getRank(id)] = true;
+      }
+      for (int rank = 0; rank < matches.length; ++rank) {
+        if (matches[rank])
+          shownAttendees.add(attendees.get(rank));
+      }
+    }
+    notifyDataSetChanged();
   }
 
 }
@@ -33,6 +33,9 @@ public class Settings {
   /** Length of the meeting to find in minutes */
   private int meetingLength;
 
+  /** The meeting lengths the user can choose from in minutes */
+  private int[] meetingLengths;
+
   /** How long in the future do we have to look for in days */
   private int timeSpan;
 
@@ -59,6 +62,33 @@ public class Settings {
    */
   private String workingHoursEnd;
 
+  /**
+   * Length in minutes of the slots in which the free times are computed, 0 to
+   * compute exact free times.
+   */
+  private int slotGranularity;
+
+  /**
+   * Number of time span windows whose meeting times are prefetched ahead of
+   * the displayed ones, 0 to disable prefetching.
+   */
+  private int prefetchDepth;
+
+  /**
+   * True if the meeting times are only prefetched over Wi-Fi.
+   */
+  private boolean prefetchOnWifiOnly;
+
+  /**
+   * True if the busy times of all the contacts are synced to a snapshot.
+   */
+  private boolean useSnapshot;
+
+  /**
+   * The working hours and days compiled from the settings above.
+   */
+  private AvailabilityMask availabilityMask = AvailabilityMask.ALWAYS;
+
   /**
    * User selected account.
    */
@@ -90,6 +120,25 @@ public class Settings {
     return meetingLength;
   }
 
+  public int[] getMeetingLengths() {
+    return meetingLengths;
+  }
+
+  /**
+   * Change the length of the meeting to find and save it in the preferences.
+   * 
+   * @param context The application context
+   * @param meetingLength The new length of the meeting in minutes
+   */
+  public void setMeetingLength(Context context, int meetingLength) {
+    this.meetingLength = meetingLength;
+
+    SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(context).edit();
+    editor.putString(context.getString(R.string.meeting_length_list_pref),
+        Integer.toString(meetingLength));
+    editor.commit();
+  }
+
   public int getTimeSpan() {
     return timeSpan;
   }
@@ -110,6 +159,26 @@ public class Settings {
     return workingHoursEnd;
   }
 
+  public int getSlotGranularity() {
+    return slotGranularity;
+  }
+
+  public int getPrefetchDepth() {
+    return prefetchDepth;
+  }
+
+  public boolean doPrefetchOnWifiOnly() {
+    return prefetchOnWifiOnly;
+  }
+
+  public boolean doUseSnapshot() {
+    return useSnapshot;
+  }
+
+  public AvailabilityMask getAvailabilityMask() {
+    return availabilityMask;
+  }
+
   public Account getAccount() {
     return account;
   }
@@ -136,6 +205,13 @@ public class Settings {
         context.getString(R.string.meeting_length_default_value));
     meetingLength = Integer.parseInt(meeting_length_list_pref);
 
+    String[] meeting_length_values = context.getResources().getStringArray(
+        R.array.meeting_length_array_values);
+    meetingLengths = new int[meeting_length_values.length];
+    for (int i = 0; i < meeting_length_values.length; ++i) {
+      meetingLengths[i] = Integer.parseInt(meeting_length_values[i]);
+    }
+
     String time_span_list_pref = prefs.getString(context.getString(R.string.time_span_list_pref),
         context.getString(R.string.time_span_default_value));
     timeSpan = Integer.parseInt(time_span_list_pref);
@@ -156,11 +232,49 @@ public class Settings {
     workingHoursEnd = prefs.getString(context.getString(R.string.working_hours_end_text_pref),
         context.getString(R.string.working_hours_end_default_value));
 
+    String slot_granularity_list_pref = prefs.getString(
+        context.getString(R.string.slot_granularity_list_pref),
+        context.getString(R.string.slot_granularity_default_value));
+    slotGranularity = Integer.parseInt(slot_granularity_list_pref);
+
+    String prefetch_depth_list_pref = prefs.getString(
+        context.getString(R.string.prefetch_depth_list_pref),
+        context.getString(R.string.prefetch_depth_default_value));
+    prefetchDepth = Integer.parseInt(prefetch_depth_list_pref);
+
+    Boolean prefetch_wifi_only_chkbox_pref = prefs.getBoolean(
+        context.getString(R.string.prefetch_wifi_only_chkbox_pref),
+        Boolean.parseBoolean(context.getString(R.string.prefetch_wifi_only_default_value)));
+    prefetchOnWifiOnly = prefetch_wifi_only_chkbox_pref.booleanValue();
+
+    Boolean snapshot_chkbox_pref = prefs.getBoolean(
+        context.getString(R.string.snapshot_chkbox_pref),
+        Boolean.parseBoolean(context.getString(R.string.snapshot_default_value)));
+    useSnapshot = snapshot_chkbox_pref.booleanValue();
+
+    compileAvailabilityMask();
+
     String oldAccount = prefs.getString(context.getString(R.string.selected_account_text_pref),
         null);
     getAccount(context, oldAccount, handleSettings);
   }
 
+  /**
+   * Compile the working hours and weekends settings into the availability
+   * mask, so they are not parsed again for every query.
+   */
+  private void compileAvailabilityMask() {
+    int startMinute = 0;
+    int endMinute = AvailabilityMask.MINUTES_PER_DAY;
+
+    if (useWorkingHours) {
+      startMinute = AvailabilityMask.parseMinuteOfDay(workingHoursStart);
+      endMinute = AvailabilityMask.parseMinuteOfDay(workingHoursEnd);
+    }
+    availabilityMask = new AvailabilityMask(startMinute, endMinute,
+        skipWeekends ? AvailabilityMask.WEEK_DAYS : AvailabilityMask.ALL_DAYS);
+  }
+
   /**
    * @param context
    * @param oldAccount TODO
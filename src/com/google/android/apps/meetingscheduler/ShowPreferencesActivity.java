@@ -47,6 +47,10 @@ public class ShowPreferencesActivity extends PreferenceActivity implements
   private String meetingLengthKey;
   private ListPreference timeSpanPref;
   private String timeSpanKey;
+  private ListPreference slotGranularityPref;
+  private String slotGranularityKey;
+  private ListPreference prefetchDepthPref;
+  private String prefetchDepthKey;
   private CheckBoxPreference skipWeekendsPref;
   private String skipWeekendsKey;
   private CheckBoxPreference useWorkingHoursPref;
@@ -110,6 +114,13 @@ public class ShowPreferencesActivity extends PreferenceActivity implements
     timeSpanKey = getString(R.string.time_span_list_pref);
     timeSpanPref = (ListPreference) getPreferenceScreen().findPreference(timeSpanKey);
 
+    slotGranularityKey = getString(R.string.slot_granularity_list_pref);
+    slotGranularityPref = (ListPreference) getPreferenceScreen().findPreference(
+        slotGranularityKey);
+
+    prefetchDepthKey = getString(R.string.prefetch_depth_list_pref);
+    prefetchDepthPref = (ListPreference) getPreferenceScreen().findPreference(prefetchDepthKey);
+
     skipWeekendsKey = getString(R.string.skip_weekends_chkbox_pref);
     skipWeekendsPref = (CheckBoxPreference) getPreferenceScreen().findPreference(skipWeekendsKey);
 
@@ -149,6 +160,10 @@ public class ShowPreferencesActivity extends PreferenceActivity implements
       meetingLengthPref.setSummary(meetingLengthPref.getEntry());
     } else if (key.equals(timeSpanKey)) {
       timeSpanPref.setSummary(timeSpanPref.getEntry());
+    } else if (key.equals(slotGranularityKey)) {
+      slotGranularityPref.setSummary(slotGranularityPref.getEntry());
+    } else if (key.equals(prefetchDepthKey)) {
+      prefetchDepthPref.setSummary(prefetchDepthPref.getEntry());
     } else if (key.equals(useWorkingHoursKey)) {
       setUseWorkingHoursSummary();
       enableDisableWorkingHoursPreferences();
@@ -182,6 +197,18 @@ public class ShowPreferencesActivity extends PreferenceActivity implements
       timeSpanPref.setSummary(getString(R.string.time_span_summary));
     }
 
+    if (slotGranularityPref.getEntry() != null && slotGranularityPref.getEntry().length() > 0) {
+      slotGranularityPref.setSummary(slotGranularityPref.getEntry());
+    } else {
+      slotGranularityPref.setSummary(getString(R.string.slot_granularity_summary));
+    }
+
+    if (prefetchDepthPref.getEntry() != null && prefetchDepthPref.getEntry().length() > 0) {
+      prefetchDepthPref.setSummary(prefetchDepthPref.getEntry());
+    } else {
+      prefetchDepthPref.setSummary(getString(R.string.prefetch_depth_summary));
+    }
+
     setSkipWeekendsSummary();
 
     setUseWorkingHoursSummary();
@@ -359,6 +386,7 @@ public class ShowPreferencesActivity extends PreferenceActivity implements
     SharedPreferences.Editor editor = preferences.edit();
     editor.putString(meetingLengthKey, meetingLengthPref.getValue());
     editor.putString(timeSpanKey, timeSpanPref.getValue());
+    editor.putString(slotGranularityKey, slotGranularityPref.getValue());
     editor.putBoolean(skipWeekendsKey, skipWeekendsPref.isChecked());
     editor.putBoolean(useWorkingHoursKey, useWorkingHoursPref.isChecked());
     editor.putString(workingHoursStartKey, workingHoursStartHours + "." + workingHoursStartMinutes);
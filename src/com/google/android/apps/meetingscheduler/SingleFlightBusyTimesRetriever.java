@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.api.data.calendar.v2.model.Busy;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * BusyTimesRetriever sharing the in-flight requests of the wrapped retriever
+ * between concurrent callers, e.g the warm-up of the selected attendees, the
+ * prefetch of the next window and the search itself.
+ *
+ * An attendee already being retrieved for a range covering the requested one
+ * isn't retrieved again: the caller waits for the in-flight request and gets
+ * its own copy of the busy times, published to its listener as they arrive.
+ * An attendee being retrieved for a range only overlapping the requested one
+ * is retrieved once the in-flight request is done, so that a caching wrapped
+ * retriever only fetches the days still missing.
+ */
+public class SingleFlightBusyTimesRetriever implements BusyTimesRetriever {
+
+  private static SingleFlightBusyTimesRetriever instance;
+
+  /** The retriever whose requests are shared. */
+  private final BusyTimesRetriever retriever;
+
+  /** The in-flight requests, mapped by the email of their attendees. */
+  private final Map<String, List<Flight>> flights = new HashMap<String, List<Flight>>();
+
+  /** Number of requests received. */
+  private int requestCount;
+
+  /** Number of requests sharing at least one in-flight request. */
+  private int sharedRequestCount;
+
+  /** Number of attendees requested. */
+  private int attendeeCount;
+
+  /** Number of attendees served by an in-flight request. */
+  private int sharedAttendeeCount;
+
+  /** Number of attendees delayed until an overlapping request was done. */
+  private int delayedAttendeeCount;
+
+  /**
+   * Constructor.
+   *
+   * @param retriever The retriever whose requests are shared.
+   */
+  public SingleFlightBusyTimesRetriever(BusyTimesRetriever retriever) {
+    this.retriever = retriever;
+  }
+
+  /**
+   * @param context The application context.
+   * @return The retriever shared by the application, sharing the requests of
+   *         a {@link SnapshotBusyTimesRetriever} in front of a
+   *         {@link CachingBusyTimesRetriever} in front of a
+   *         {@link FreeBusyTimesRetriever}.
+   */
+  public static synchronized SingleFlightBusyTimesRetriever getInstance(Context context) {
+    if (instance == null)
+      instance = new SingleFlightBusyTimesRetriever(new SnapshotBusyTimesRetriever(
+          new CachingBusyTimesRetriever(new FreeBusyTimesRetriever(), FreeBusyCache
+              .getInstance(context)), FreeBusySnapshotSync.getFile(context)));
+    return instance;
+  }
+
+  @Override
+  public Map<Attendee, List<Busy>> getBusyTimes(List<Attendee> attendees, Date startDate,
+      Context context) {
+    return getBusyTimes(attendees, startDate, Settings.getInstance().getTimeSpan() + 1, context);
+  }
+
+  @Override
+  public Map<Attendee, List<Busy>> getBusyTimes(List<Attendee> attendees, Date startDate,
+      int timeSpan, Context context) {
+    Map<Attendee, List<Busy>> result = new HashMap<Attendee, List<Busy>>();
+
+    for (Map.Entry<Attendee, TimeIntervals> entry : getBusyIntervals(attendees, startDate,
+        timeSpan, context).entrySet()) {
+      result.put(entry.getKey(), entry.getValue().toBusyTimes());
+    }
+
+    return result;
+  }
+
+  @Override
+  public BusyTimesResult getBusyIntervals(List<Attendee> attendees, Date startDate,
+      int timeSpan, Context context) {
+    return getBusyIntervals(attendees, startDate, timeSpan, context, null);
+  }
+
+  @Override
+  public BusyTimesResult getBusyIntervals(List<Attendee> attendees, Date startDate,
+      int timeSpan, Context context, BusyTimesListener listener) {
+    long start = startDate.getTime();
+    // Days are local, so the range is longer or shorter than timeSpan * 24
+    // hours when it crosses a daylight saving time transition.
+    long end = new DayIndex(CalendarServiceManager.getInstance().getTimeZone(), start, timeSpan)
+        .addDays(start, timeSpan);
+    BusyTimesResult result = new BusyTimesResult();
+    Flight flight = new Flight(start, end);
+    List<Attendee> flightAttendees = new ArrayList<Attendee>();
+    Map<Attendee, Flight> sharedFlights = new LinkedHashMap<Attendee, Flight>();
+    Set<Flight> overlappingFlights = new LinkedHashSet<Flight>();
+    List<Attendee> delayedAttendees = new ArrayList<Attendee>();
+
+    synchronized (this) {
+      for (Attendee attendee : attendees) {
+        Flight sharedFlight = findFlight(attendee.email, start, end, true);
+        Flight overlappingFlight = findFlight(attendee.email, start, end, false);
+
+        if (sharedFlight != null) {
+          sharedFlights.put(attendee, sharedFlight);
+        } else if (overlappingFlight != null) {
+          overlappingFlights.add(overlappingFlight);
+          delayedAttendees.add(attendee);
+        } else {
+          flightAttendees.add(attendee);
+          addFlight(attendee.email, flight);
+        }
+      }
+
+      ++requestCount;
+      if (!sharedFlights.isEmpty())
+        ++sharedRequestCount;
+      attendeeCount += attendees.size();
+      sharedAttendeeCount += sharedFlights.size();
+      delayedAttendeeCount += delayedAttendees.size();
+    }
+
+    if (!sharedFlights.isEmpty() || !delayedAttendees.isEmpty())
+      Log.i(MeetingSchedulerConstants.TAG, "Sharing " + sharedFlights.size() + " and delaying "
+          + delayedAttendees.size() + " of " + attendees.size()
+          + " attendee(s) with in-flight requests (" + getStats() + ")");
+
+    for (Map.Entry<Attendee, Flight> entry : sharedFlights.entrySet()) {
+      entry.getValue().join(entry.getKey(), start, end, listener);
+    }
+
+    if (!flightAttendees.isEmpty()) {
+      BusyTimesResult flightResult = null;
+
+      try {
+        flightResult = flight.run(flightAttendees, startDate, timeSpan, context, listener);
+        result.putAll(flightAttendees, flightResult);
+      } finally {
+        // Forget the request before waking up the callers waiting for it, so
+        // the delayed ones don't find it again.
+        synchronized (this) {
+          for (Attendee attendee : flightAttendees) {
+            removeFlight(attendee.email, flight);
+          }
+        }
+        flight.finish(flightAttendees, flightResult);
+      }
+    }
+
+    try {
+      for (Map.Entry<Attendee, Flight> entry : sharedFlights.entrySet()) {
+        entry.getValue().getResult(entry.getKey(), start, end, result);
+      }
+      for (Flight overlappingFlight : overlappingFlights) {
+        overlappingFlight.await();
+      }
+    } catch (InterruptedException e) {
+      Log.e(MeetingSchedulerConstants.TAG, "Interrupted while waiting for in-flight requests");
+      Thread.currentThread().interrupt();
+      return result;
+    }
+
+    if (!delayedAttendees.isEmpty())
+      result.putAll(delayedAttendees, getBusyIntervals(delayedAttendees, startDate, timeSpan,
+          context, listener));
+
+    return result;
+  }
+
+  /**
+   * @return The counters of the shared requests, for logging.
+   */
+  public synchronized String getStats() {
+    return sharedRequestCount + " of " + requestCount + " request(s) and " + sharedAttendeeCount
+        + " of " + attendeeCount + " attendee(s) shared, " + delayedAttendeeCount + " delayed";
+  }
+
+  /**
+   * @return The number of requests received.
+   */
+  public synchronized int getRequestCount() {
+    return requestCount;
+  }
+
+  /**
+   * @return The number of requests sharing at least one in-flight request.
+   */
+  public synchronized int getSharedRequestCount() {
+    return sharedRequestCount;
+  }
+
+  /**
+   * @return The number of attendees requested.
+   */
+  public synchronized int getAttendeeCount() {
+    return attendeeCount;
+  }
+
+  /**
+   * @return The number of attendees served by an in-flight request instead of
+   *         being retrieved again.
+   */
+  public synchronized int getSharedAttendeeCount() {
+    return sharedAttendeeCount;
+  }
+
+  /**
+   * @return The number of attendees retrieved only once an overlapping
+   *         in-flight request was done.
+   */
+  public synchronized int getDelayedAttendeeCount() {
+    return delayedAttendeeCount;
+  }
+
+  /**
+   * @param email The email of the attendee.
+   * @param start The start of the requested range.
+   * @param end The end of the requested range.
+   * @param covering True to look for a request covering the range, false for a
+   *          request overlapping it.
+   * @return An in-flight request of the attendee covering or overlapping the
+   *         range, or null.
+   */
+  private Flight findFlight(String email, long start, long end, boolean covering) {
+    List<Flight> attendeeFlights = flights.get(email);
+
+    if (attendeeFlights != null) {
+      for (Flight flight : attendeeFlights) {
+        if (covering ? flight.start <= start && flight.end >= end : flight.start < end
+            && flight.end > start)
+          return flight;
+      }
+    }
+    return null;
+  }
+
+  private void addFlight(String email, Flight flight) {
+    List<Flight> attendeeFlights = flights.get(email);
+
+    if (attendeeFlights == null) {
+      attendeeFlights = new ArrayList<Flight>();
+      flights.put(email, attendeeFlights);
+    }
+    attendeeFlights.add(flight);
+  }
+
+  private void removeFlight(String email, Flight flight) {
+    List<Flight> attendeeFlights = flights.get(email);
+
+    if (attendeeFlights != null) {
+      attendeeFlights.remove(flight);
+      if (attendeeFlights.isEmpty())
+        flights.remove(email);
+    }
+  }
+
+  /**
+   * A request of the wrapped retriever and the callers waiting for it. Its
+   * busy times are kept once done so that late callers can still read them.
+   */
+  private class Flight implements BusyTimesListener {
+
+    private final long start;
+    private final long end;
+
+    /** The busy times retrieved so far, mapped by email. */
+    private final Map<String, TimeIntervals> busyTimes = new HashMap<String, TimeIntervals>();
+
+    /** The status of the attendees once done, mapped by email. */
+    private final Map<String, BusyTimesResult.Status> statuses =
+        new HashMap<String, BusyTimesResult.Status>();
+
+    /** The callers waiting for the attendees, mapped by email. */
+    private final Map<String, List<Waiter>> waiters = new HashMap<String, List<Waiter>>();
+
+    /** The listener of the caller sending the request. */
+    private BusyTimesListener listener;
+
+    /** Whether the request is done. */
+    private boolean done;
+
+    public Flight(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    /**
+     * Send the request, publishing the busy times to the waiting callers as
+     * they are retrieved. {@link #finish(List, BusyTimesResult)} must be
+     * called once done.
+     *
+     * @return The result of the request.
+     */
+    public BusyTimesResult run(List<Attendee> attendees, Date startDate, int timeSpan,
+        Context context, BusyTimesListener listener) {
+      synchronized (this) {
+        this.listener = listener;
+      }
+      return retriever.getBusyIntervals(attendees, startDate, timeSpan, context, this);
+    }
+
+    /**
+     * Keep a copy of the busy times of an attendee, which the caller sending
+     * the request is free to modify, then publish them. The listeners are
+     * called without holding the lock, so that a slow one doesn't block the
+     * other callers.
+     */
+    @Override
+    public void onBusyTimes(Attendee attendee, TimeIntervals attendeeBusyTimes) {
+      TimeIntervals copy = attendeeBusyTimes.copyRange(Long.MIN_VALUE, Long.MAX_VALUE);
+      List<Waiter> attendeeWaiters = null;
+      BusyTimesListener flightListener;
+
+      synchronized (this) {
+        busyTimes.put(attendee.email, copy);
+        if (waiters.containsKey(attendee.email))
+          attendeeWaiters = new ArrayList<Waiter>(waiters.get(attendee.email));
+        flightListener = listener;
+      }
+
+      if (attendeeWaiters != null) {
+        for (Waiter waiter : attendeeWaiters) {
+          waiter.publish(copy);
+        }
+      }
+      if (flightListener != null)
+        flightListener.onBusyTimes(attendee, attendeeBusyTimes);
+    }
+
+    /**
+     * Wait for an attendee, publishing their busy times to {@code listener}
+     * right away if they have been retrieved already.
+     */
+    public void join(Attendee attendee, long start, long end, BusyTimesListener listener) {
+      Waiter waiter = new Waiter(attendee, start, end, listener);
+      TimeIntervals attendeeBusyTimes;
+
+      synchronized (this) {
+        List<Waiter> attendeeWaiters = waiters.get(attendee.email);
+
+        if (attendeeWaiters == null) {
+          attendeeWaiters = new ArrayList<Waiter>();
+          waiters.put(attendee.email, attendeeWaiters);
+        }
+        attendeeWaiters.add(waiter);
+        attendeeBusyTimes = busyTimes.get(attendee.email);
+      }
+
+      // The busy times retrieved later are published by onBusyTimes.
+      if (attendeeBusyTimes != null)
+        waiter.publish(attendeeBusyTimes);
+    }
+
+    /**
+     * Wait for the request to be done and add a copy of the busy times of the
+     * attendee in the range to {@code result}.
+     */
+    public synchronized void getResult(Attendee attendee, long start, long end,
+        BusyTimesResult result) throws InterruptedException {
+      await();
+
+      BusyTimesResult.Status status = statuses.get(attendee.email);
+      TimeIntervals attendeeBusyTimes = busyTimes.get(attendee.email);
+
+      if (attendeeBusyTimes != null && status != BusyTimesResult.Status.FAILED)
+        result.put(attendee, attendeeBusyTimes.copyRange(start, end), status);
+      else
+        result.setFailed(attendee);
+    }
+
+    /**
+     * Wait for the request to be done.
+     */
+    public synchronized void await() throws InterruptedException {
+      while (!done) {
+        wait();
+      }
+    }
+
+    /**
+     * Record the status of the attendees and wake up the waiting callers.
+     *
+     * @param flightResult The result of the request, or null if it failed.
+     */
+    public synchronized void finish(List<Attendee> attendees, BusyTimesResult flightResult) {
+      for (Attendee attendee : attendees) {
+        BusyTimesResult.Status status = BusyTimesResult.Status.FAILED;
+
+        if (flightResult != null && flightResult.containsKey(attendee)) {
+          status = flightResult.getStatus(attendee);
+          if (!busyTimes.containsKey(attendee.email))
+            busyTimes.put(attendee.email, flightResult.get(attendee).copyRange(Long.MIN_VALUE,
+                Long.MAX_VALUE));
+        }
+        statuses.put(attendee.email, status);
+      }
+      done = true;
+      listener = null;
+      notifyAll();
+    }
+
+  }
+
+  /**
+   * A caller waiting for an attendee of an in-flight request.
+   */
+  private static class Waiter {
+
+    private final Attendee attendee;
+    private final long start;
+    private final long end;
+    private final BusyTimesListener listener;
+
+    public Waiter(Attendee attendee, long start, long end, BusyTimesListener listener) {
+      this.attendee = attendee;
+      this.start = start;
+      this.end = end;
+      this.listener = listener;
+    }
+
+    /**
+     * Publish a copy of the busy times in the range to the listener, if any.
+     */
+    public void publish(TimeIntervals busyTimes) {
+      if (listener != null)
+        listener.onBusyTimes(attendee, busyTimes.copyRange(start, end));
+    }
+
+  }
+
+}
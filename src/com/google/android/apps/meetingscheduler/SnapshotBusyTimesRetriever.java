@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.api.data.calendar.v2.model.Busy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BusyTimesRetriever serving the busy times from a {@link FreeBusySnapshot}
+ * and only asking the wrapped retriever for the attendees missing from it. The
+ * snapshot is used only if it covers the requested days and is younger than
+ * the maximum age, and is mapped again whenever the snapshot file is replaced.
+ * <p>
+ * The snapshot is stale by design: it is served directly for
+ * {@link #DEFAULT_TTL}, the interval at which {@link FreeBusySnapshotSync}
+ * builds it again, so the events created since the last sync are missed. Once
+ * it is older, e.g when no sync could run over Wi-Fi, the attendees in it are
+ * asked to the wrapped retriever too and the snapshot is only used for the
+ * ones who couldn't be retrieved.
+ */
+public class SnapshotBusyTimesRetriever implements BusyTimesRetriever {
+
+  /**
+   * Default age in milliseconds after which a snapshot is only used as a
+   * fallback.
+   */
+  public static final long DEFAULT_TTL = 12 * 60 * 60 * 1000;
+
+  /** Default age in milliseconds after which a snapshot isn't used anymore. */
+  public static final long DEFAULT_MAX_AGE = 2 * DEFAULT_TTL;
+
+  /** The retriever from which to fetch the attendees missing from the snapshot. */
+  private final BusyTimesRetriever retriever;
+
+  /** The snapshot file. */
+  private final File file;
+
+  /** Age in milliseconds after which the snapshot is only used as a fallback. */
+  private final long ttl;
+
+  /** Age in milliseconds after which the snapshot isn't used anymore. */
+  private final long maxAge;
+
+  /** The mapped snapshot, or null. */
+  private FreeBusySnapshot snapshot;
+
+  /** The last modification time of the mapped snapshot file. */
+  private long snapshotModified;
+
+  /**
+   * Constructor.
+   *
+   * @param retriever The retriever from which to fetch the attendees missing
+   *          from the snapshot.
+   * @param file The snapshot file.
+   */
+  public SnapshotBusyTimesRetriever(BusyTimesRetriever retriever, File file) {
+    this(retriever, file, DEFAULT_TTL, DEFAULT_MAX_AGE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param retriever The retriever from which to fetch the attendees missing
+   *          from the snapshot.
+   * @param file The snapshot file.
+   * @param ttl Age in milliseconds after which the snapshot is only used for
+   *          the attendees the wrapped retriever couldn't retrieve.
+   * @param maxAge Age in milliseconds after which the snapshot isn't used
+   *          anymore.
+   */
+  public SnapshotBusyTimesRetriever(BusyTimesRetriever retriever, File file, long ttl,
+      long maxAge) {
+    this.retriever = retriever;
+    this.file = file;
+    this.ttl = ttl;
+    this.maxAge = maxAge;
+  }
+
+  @Override
+  public Map<Attendee, List<Busy>> getBusyTimes(List<Attendee> attendees, Date startDate,
+      Context context) {
+    return getBusyTimes(attendees, startDate, Settings.getInstance().getTimeSpan() + 1, context);
+  }
+
+  @Override
+  public Map<Attendee, List<Busy>> getBusyTimes(List<Attendee> attendees, Date startDate,
+      int timeSpan, Context context) {
+    Map<Attendee, List<Busy>> result = new HashMap<Attendee, List<Busy>>();
+
+    for (Map.Entry<Attendee, TimeIntervals> entry : getBusyIntervals(attendees, startDate,
+        timeSpan, context).entrySet()) {
+      result.put(entry.getKey(), entry.getValue().toBusyTimes());
+    }
+
+    return result;
+  }
+
+  @Override
+  public BusyTimesResult getBusyIntervals(List<Attendee> attendees, Date startDate,
+      int timeSpan, Context context) {
+    return getBusyIntervals(attendees, startDate, timeSpan, context, null);
+  }
+
+  /**
+   * The attendees in a fresh snapshot are published to {@code listener} first,
+   * then the others as the wrapped retriever publishes them.
+   */
+  @Override
+  public BusyTimesResult getBusyIntervals(List<Attendee> attendees, Date startDate,
+      int timeSpan, Context context, BusyTimesListener listener) {
+    FreeBusySnapshot snapshot = getSnapshot();
+    BusyTimesResult result = new BusyTimesResult();
+    List<Attendee> missingAttendees = attendees;
+    Map<Attendee, TimeIntervals> staleBusyTimes = new HashMap<Attendee, TimeIntervals>();
+
+    if (snapshot != null) {
+      DayIndex days = new DayIndex(CalendarServiceManager.getInstance().getTimeZone(),
+          startDate.getTime(), timeSpan);
+      int firstDay = days.getDay(startDate.getTime());
+      long firstDayStart = days.getDayStart(firstDay);
+      long lastDayStart = days.getDayStart(firstDay + timeSpan - 1);
+
+      if (snapshot.getFirstDay() <= firstDayStart && snapshot.getLastDay() >= lastDayStart) {
+        boolean fresh = System.currentTimeMillis() - snapshot.getCreated() <= ttl;
+
+        missingAttendees = new ArrayList<Attendee>();
+        for (Attendee attendee : attendees) {
+          TimeIntervals busyTimes = new TimeIntervals();
+
+          if (!snapshot.getBusyTimes(attendee.email, firstDayStart, lastDayStart, busyTimes)) {
+            missingAttendees.add(attendee);
+          } else if (fresh) {
+            result.put(attendee, busyTimes, BusyTimesResult.Status.CACHED);
+            if (listener != null)
+              listener.onBusyTimes(attendee, busyTimes);
+          } else {
+            staleBusyTimes.put(attendee, busyTimes);
+            missingAttendees.add(attendee);
+          }
+        }
+        Log.i(MeetingSchedulerConstants.TAG, "Read " + (result.size() + staleBusyTimes.size())
+            + " of " + attendees.size() + " attendee(s) from the "
+            + (fresh ? "fresh" : "stale") + " freebusy snapshot");
+      }
+    }
+
+    if (!missingAttendees.isEmpty())
+      result.putAll(missingAttendees, retriever.getBusyIntervals(missingAttendees, startDate,
+          timeSpan, context, listener));
+
+    // Fall back on the stale snapshot for the attendees who couldn't be
+    // retrieved.
+    for (Map.Entry<Attendee, TimeIntervals> entry : staleBusyTimes.entrySet()) {
+      if (result.getStatus(entry.getKey()) == BusyTimesResult.Status.FAILED) {
+        result.put(entry.getKey(), entry.getValue(), BusyTimesResult.Status.CACHED);
+        if (listener != null)
+          listener.onBusyTimes(entry.getKey(), entry.getValue());
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return The snapshot, mapped again if the file has been replaced, or null
+   *         if there is no usable snapshot.
+   */
+  private synchronized FreeBusySnapshot getSnapshot() {
+    long modified = file.lastModified();
+
+    if (modified == 0) {
+      snapshot = null;
+    } else if (snapshot == null || modified != snapshotModified) {
+      try {
+        snapshot = FreeBusySnapshot.open(file);
+      } catch (IOException e) {
+        Log.e(MeetingSchedulerConstants.TAG, "Couldn't open the freebusy snapshot: "
+            + e.getMessage());
+        snapshot = null;
+      }
+      snapshotModified = modified;
+    }
+    if (snapshot != null && System.currentTimeMillis() - snapshot.getCreated() > maxAge)
+      return null;
+    return snapshot;
+  }
+
+}
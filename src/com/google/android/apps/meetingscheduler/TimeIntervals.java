@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.data.calendar.v2.model.Busy;
+import com.google.api.data.gdata.v2.model.When;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Growable list of time intervals stored as start/end pairs in two parallel
+ * primitive arrays of milliseconds since epoch.
+ */
+public class TimeIntervals {
+
+  /** Default capacity of a newly created list. */
+  private static final int DEFAULT_CAPACITY = 16;
+
+  /** Below this size, ranges are sorted using an insertion sort. */
+  private static final int INSERTION_SORT_THRESHOLD = 8;
+
+  /** The start times of the intervals. */
+  private long[] starts;
+
+  /** The end times of the intervals. */
+  private long[] ends;
+
+  /** The number of intervals in the list. */
+  private int size;
+
+  /**
+   * Default constructor.
+   */
+  public TimeIntervals() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param capacity The initial number of intervals the list can hold.
+   */
+  public TimeIntervals(int capacity) {
+    starts = new long[Math.max(capacity, 1)];
+    ends = new long[starts.length];
+  }
+
+  /**
+   * @param busyTimes The busy times to copy.
+   * @return The busy times as intervals, in the same order.
+   */
+  public static TimeIntervals fromBusyTimes(List<Busy> busyTimes) {
+    TimeIntervals result = new TimeIntervals(busyTimes.size());
+
+    for (Busy busy : busyTimes) {
+      result.add(busy.when.startTime.value, busy.when.endTime.value);
+    }
+    return result;
+  }
+
+  /**
+   * @return The intervals as a list of {@link Busy}, in the same order.
+   */
+  public List<Busy> toBusyTimes() {
+    List<Busy> result = new ArrayList<Busy>(size);
+
+    for (int i = 0; i < size; ++i) {
+      Busy busy = new Busy();
+
+      busy.when = new When();
+      busy.when.startTime = new DateTime(starts[i]);
+      busy.when.endTime = new DateTime(ends[i]);
+      result.add(busy);
+    }
+    return result;
+  }
+
+  /**
+   * Add an interval at the end of the list.
+   *
+   * @param start The start of the interval.
+   * @param end The end of the interval.
+   */
+  public void add(long start, long end) {
+    ensureCapacity(size + 1);
+    starts[size] = start;
+    ends[size] = end;
+    ++size;
+  }
+
+  /**
+   * Add {@code count} intervals from packed start/end arrays.
+   *
+   * @param starts The start times to add.
+   * @param ends The end times to add.
+   * @param count The number of intervals to read from the arrays.
+   */
+  public void addAll(long[] starts, long[] ends, int count) {
+    ensureCapacity(size + count);
+    System.arraycopy(starts, 0, this.starts, size, count);
+    System.arraycopy(ends, 0, this.ends, size, count);
+    size += count;
+  }
+
+  /**
+   * @return A copy of the list.
+   */
+  public TimeIntervals copy() {
+    TimeIntervals result = new TimeIntervals(size);
+
+    result.addAll(starts, ends, size);
+    return result;
+  }
+
+  /**
+   * @param start The start of the range.
+   * @param end The end of the range.
+   * @return A copy of the intervals overlapping the range, in the same order.
+   *         The intervals aren't truncated to the range.
+   */
+  public TimeIntervals copyRange(long start, long end) {
+    TimeIntervals result = new TimeIntervals(size);
+
+    for (int i = 0; i < size; ++i) {
+      if (starts[i] < end && ends[i] > start)
+        result.add(starts[i], ends[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Add the parts of the intervals overlapping a range to another list,
+   * clipped to the range. The list must be sorted by start time. Consecutive
+   * ranges, e.g days, are clipped in a single pass by passing the returned
+   * index back as {@code from}.
+   *
+   * @param from The index of the first interval which may overlap the range.
+   * @param start The start of the range.
+   * @param end The end of the range.
+   * @param result The list to which to add the clipped intervals.
+   * @return The index of the first interval not ending before the range.
+   */
+  public int clip(int from, long start, long end, TimeIntervals result) {
+    // Skip the intervals ending before the range, then keep the ones
+    // overlapping it.
+    while (from < size && ends[from] <= start) {
+      ++from;
+    }
+    for (int i = from; i < size && starts[i] < end; ++i) {
+      if (ends[i] > start)
+        result.add(Math.max(starts[i], start), Math.min(ends[i], end));
+    }
+    return from;
+  }
+
+  /**
+   * @return The number of intervals in the list.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param index The index of the interval.
+   * @return The start of the interval at {@code index}.
+   */
+  public long getStart(int index) {
+    return starts[index];
+  }
+
+  /**
+   * @param index The index of the interval.
+   * @return The end of the interval at {@code index}.
+   */
+  public long getEnd(int index) {
+    return ends[index];
+  }
+
+  /**
+   * Replace the interval at {@code index}.
+   *
+   * @param index The index of the interval to replace.
+   * @param start The new start of the interval.
+   * @param end The new end of the interval.
+   */
+  public void set(int index, long start, long end) {
+    starts[index] = start;
+    ends[index] = end;
+  }
+
+  /**
+   * Keep only the first {@code size} intervals of the list.
+   *
+   * @param size The new size of the list.
+   */
+  public void truncate(int size) {
+    if (size < this.size)
+      this.size = size;
+  }
+
+  /**
+   * Remove every interval from the list, keeping the allocated storage.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * @return True if the intervals are sorted by start time.
+   */
+  public boolean isSorted() {
+    for (int i = 1; i < size; ++i) {
+      if (starts[i] < starts[i - 1])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Sort the intervals by start time, then by end time.
+   */
+  public void sort() {
+    sort(0, size - 1);
+  }
+
+  /**
+   * Merge the overlapping or touching intervals of this list in place, e.g
+   * 9:00-10:00 and 10:00-12:00 become one 9:00-12:00 interval. The list must be
+   * sorted by start time. The intervals are compacted with a read and a write
+   * index in a single pass.
+   */
+  public void coalesce() {
+    if (size == 0)
+      return;
+
+    int write = 0;
+
+    for (int read = 1; read < size; ++read) {
+      if (starts[read] <= ends[write]) {
+        if (ends[read] > ends[write])
+          ends[write] = ends[read];
+      } else {
+        ++write;
+        starts[write] = starts[read];
+        ends[write] = ends[read];
+      }
+    }
+    size = write + 1;
+  }
+
+  /**
+   * Add the intervals of this list to another list, merging the overlapping or
+   * touching ones, and leave this list untouched. The list must be sorted by
+   * start time. The merged intervals are written into the storage of
+   * {@code result} with a read and a write index in a single pass.
+   *
+   * @param result The list to which to add the merged intervals.
+   */
+  public void coalesce(TimeIntervals result) {
+    if (size == 0)
+      return;
+
+    result.ensureCapacity(result.size + size);
+
+    int write = result.size;
+
+    result.starts[write] = starts[0];
+    result.ends[write] = ends[0];
+    for (int read = 1; read < size; ++read) {
+      if (starts[read] <= result.ends[write]) {
+        if (ends[read] > result.ends[write])
+          result.ends[write] = ends[read];
+      } else {
+        ++write;
+        result.starts[write] = starts[read];
+        result.ends[write] = ends[read];
+      }
+    }
+    result.size = write + 1;
+  }
+
+  /**
+   * Make sure the list can hold at least {@code capacity} intervals.
+   *
+   * @param capacity The minimum capacity.
+   */
+  private void ensureCapacity(int capacity) {
+    if (capacity > starts.length) {
+      int newCapacity = Math.max(capacity, starts.length * 2);
+      long[] newStarts = new long[newCapacity];
+      long[] newEnds = new long[newCapacity];
+
+      System.arraycopy(starts, 0, newStarts, 0, size);
+      System.arraycopy(ends, 0, newEnds, 0, size);
+      starts = newStarts;
+      ends = newEnds;
+    }
+  }
+
+  /**
+   * Quicksort the intervals between {@code low} and {@code high} inclusive.
+   *
+   * @param low The first index to sort.
+   * @param high The last index to sort.
+   */
+  private void sort(int low, int high) {
+    while (high - low >= INSERTION_SORT_THRESHOLD) {
+      int middle = (low + high) >>> 1;
+
+      // Median of three, the pivot ends up at middle.
+      if (compare(middle, low) < 0)
+        swap(middle, low);
+      if (compare(high, low) < 0)
+        swap(high, low);
+      if (compare(high, middle) < 0)
+        swap(high, middle);
+
+      long pivotStart = starts[middle];
+      long pivotEnd = ends[middle];
+      int i = low;
+      int j = high;
+
+      while (i <= j) {
+        while (compare(i, pivotStart, pivotEnd) < 0)
+          ++i;
+        while (compare(j, pivotStart, pivotEnd) > 0)
+          --j;
+        if (i <= j)
+          swap(i++, j--);
+      }
+      // Recurse on the smaller half to bound the stack depth.
+      if (j - low < high - i) {
+        sort(low, j);
+        low = i;
+      } else {
+        sort(i, high);
+        high = j;
+      }
+    }
+    for (int i = low + 1; i <= high; ++i) {
+      long start = starts[i];
+      long end = ends[i];
+      int j = i - 1;
+
+      while (j >= low && compare(j, start, end) > 0) {
+        starts[j + 1] = starts[j];
+        ends[j + 1] = ends[j];
+        --j;
+      }
+      starts[j + 1] = start;
+      ends[j + 1] = end;
+    }
+  }
+
+  private int compare(int lhs, int rhs) {
+    return compare(lhs, starts[rhs], ends[rhs]);
+  }
+
+  private int compare(int index, long start, long end) {
+    if (starts[index] != start)
+      return starts[index] < start ? -1 : 1;
+    if (ends[index] != end)
+      return ends[index] < end ? -1 : 1;
+    return 0;
+  }
+
+  private void swap(int lhs, int rhs) {
+    long tmp = starts[lhs];
+
+    starts[lhs] = starts[rhs];
+    starts[rhs] = tmp;
+    tmp = ends[lhs];
+    ends[lhs] = ends[rhs];
+    ends[rhs] = tmp;
+  }
+
+}
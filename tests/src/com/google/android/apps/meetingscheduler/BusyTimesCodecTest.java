@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Tests of {@link BusyTimesCodec}.
+ */
+public class BusyTimesCodecTest extends TestCase {
+
+  private static final long MINUTE = 60 * 1000;
+  private static final long HOUR = 60 * MINUTE;
+
+  /** A Monday, 2010-11-15 00:00 in Los Angeles. */
+  private static final long START = 1289808000000L;
+
+  private final DayIndex days = new DayIndex(TimeZone.getTimeZone("America/Los_Angeles"),
+      START, 90);
+
+  public void testRoundTrip() {
+    // The range crosses the end of daylight saving time on 2010-11-07.
+    long[] dayStarts = getDayStarts(-14, 28);
+    TimeIntervals[] dayBusyTimes = createBusyTimes(dayStarts, new Random(7), 6);
+    byte[] data = BusyTimesCodec.encode(dayStarts, dayBusyTimes);
+
+    assertTrue(Arrays.equals(dayStarts, BusyTimesCodec.getDayStarts(data)));
+    assertEquals(concat(dayBusyTimes, 0, dayBusyTimes.length), decode(data, Long.MIN_VALUE,
+        Long.MAX_VALUE));
+  }
+
+  public void testDecodeDayRange() {
+    long[] dayStarts = getDayStarts(0, 21);
+    TimeIntervals[] dayBusyTimes = createBusyTimes(dayStarts, new Random(11), 8);
+    byte[] data = BusyTimesCodec.encode(dayStarts, dayBusyTimes);
+
+    assertEquals(concat(dayBusyTimes, 5, 12), decode(data, dayStarts[5], dayStarts[11]));
+    assertEquals(concat(dayBusyTimes, 20, 21), decode(data, dayStarts[20], Long.MAX_VALUE));
+    assertEquals("", decode(data, Long.MIN_VALUE, dayStarts[0] - 1));
+
+    // The busy times can be read in place from a larger buffer.
+    ByteBuffer buffer = ByteBuffer.allocate(data.length + 16);
+    TimeIntervals result = new TimeIntervals();
+
+    buffer.position(16);
+    buffer.put(data);
+    BusyTimesCodec.decode(buffer, 16, dayStarts[5], dayStarts[11], result);
+    assertEquals(concat(dayBusyTimes, 5, 12), toString(result));
+    assertTrue(Arrays.equals(dayStarts, BusyTimesCodec.getDayStarts(buffer, 16)));
+  }
+
+  public void testEmptyDays() {
+    byte[] data = BusyTimesCodec.encode(new long[0], new TimeIntervals[0]);
+
+    assertEquals(0, BusyTimesCodec.getDayStarts(data).length);
+    assertEquals("", decode(data, Long.MIN_VALUE, Long.MAX_VALUE));
+
+    long[] dayStarts = getDayStarts(0, 7);
+    TimeIntervals[] dayBusyTimes = new TimeIntervals[dayStarts.length];
+
+    for (int day = 0; day < dayStarts.length; ++day) {
+      dayBusyTimes[day] = new TimeIntervals();
+    }
+    dayBusyTimes[3].add(dayStarts[3] + 9 * HOUR, dayStarts[3] + 10 * HOUR);
+    data = BusyTimesCodec.encode(dayStarts, dayBusyTimes);
+
+    assertTrue(Arrays.equals(dayStarts, BusyTimesCodec.getDayStarts(data)));
+    assertEquals(concat(dayBusyTimes, 0, 7), decode(data, Long.MIN_VALUE, Long.MAX_VALUE));
+    assertEquals("", decode(data, dayStarts[4], dayStarts[6]));
+  }
+
+  public void testIntervalCrossingMidnight() {
+    long[] dayStarts = getDayStarts(0, 2);
+    TimeIntervals busyTimes = new TimeIntervals();
+    TimeIntervals[] dayBusyTimes = new TimeIntervals[2];
+
+    // A busy time from 23:00 to 1:00, clipped to each day as the cache does.
+    busyTimes.add(dayStarts[1] - HOUR, dayStarts[1] + HOUR);
+    for (int day = 0; day < 2; ++day) {
+      dayBusyTimes[day] = new TimeIntervals();
+      busyTimes.clip(0, dayStarts[day], days.getDayEnd(day), dayBusyTimes[day]);
+    }
+    byte[] data = BusyTimesCodec.encode(dayStarts, dayBusyTimes);
+
+    assertEquals(interval(dayStarts[1] - HOUR, dayStarts[1]), decode(data, dayStarts[0],
+        dayStarts[0]));
+    assertEquals(interval(dayStarts[1], dayStarts[1] + HOUR), decode(data, dayStarts[1],
+        dayStarts[1]));
+
+    TimeIntervals result = new TimeIntervals();
+
+    BusyTimesCodec.decode(data, Long.MIN_VALUE, Long.MAX_VALUE, result);
+    result.coalesce();
+    assertEquals(toString(busyTimes), toString(result));
+
+    // A day may also keep a busy time running past its end.
+    dayBusyTimes[0] = busyTimes;
+    dayBusyTimes[1] = new TimeIntervals();
+    assertEquals(toString(busyTimes), decode(BusyTimesCodec.encode(dayStarts, dayBusyTimes),
+        Long.MIN_VALUE, Long.MAX_VALUE));
+  }
+
+  public void testLargeOffsets() {
+    // Days far from the epoch on both sides, with busy times far from their
+    // day and to the millisecond, which can't be encoded in minutes.
+    long[] dayStarts = {-2208988800000L, -86400000L, 0, 4102444800000L, 253402214400000L};
+    TimeIntervals[] dayBusyTimes = new TimeIntervals[dayStarts.length];
+
+    for (int day = 0; day < dayStarts.length; ++day) {
+      dayBusyTimes[day] = new TimeIntervals();
+    }
+    dayBusyTimes[0].add(dayStarts[0] - 365 * 24 * HOUR, dayStarts[0] - 1);
+    dayBusyTimes[0].add(dayStarts[0] + 1, dayStarts[0] + 40 * 24 * HOUR + 7);
+    dayBusyTimes[2].add(-5, 5);
+    dayBusyTimes[3].add(dayStarts[3] + 13 * HOUR + 999, dayStarts[3] + 13 * HOUR + 1000);
+    dayBusyTimes[4].add(dayStarts[4] + 1000 * 24 * HOUR, dayStarts[4] + 2000 * 24 * HOUR);
+
+    byte[] data = BusyTimesCodec.encode(dayStarts, dayBusyTimes);
+
+    assertTrue(Arrays.equals(dayStarts, BusyTimesCodec.getDayStarts(data)));
+    assertEquals(concat(dayBusyTimes, 0, dayBusyTimes.length), decode(data, Long.MIN_VALUE,
+        Long.MAX_VALUE));
+    assertEquals(concat(dayBusyTimes, 3, 4), decode(data, dayStarts[3], dayStarts[3]));
+  }
+
+  /**
+   * Compare the size of three months of busy times to the size of the same
+   * busy times serialized with Java serialization, as a list of start and end
+   * pairs since the Busy objects of the feed model aren't serializable.
+   */
+  public void testSize() throws IOException {
+    long[] dayStarts = getDayStarts(0, 90);
+    TimeIntervals[] dayBusyTimes = createBusyTimes(dayStarts, new Random(13), 6);
+    List<long[]> busyTimes = new ArrayList<long[]>();
+    int count = 0;
+
+    for (TimeIntervals day : dayBusyTimes) {
+      for (int i = 0; i < day.size(); ++i) {
+        busyTimes.add(new long[] { day.getStart(i), day.getEnd(i) });
+      }
+      count += day.size();
+    }
+
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    ObjectOutputStream output = new ObjectOutputStream(serialized);
+
+    output.writeObject(busyTimes);
+    output.close();
+
+    int encodedSize = BusyTimesCodec.encode(dayStarts, dayBusyTimes).length;
+
+    Log.i(MeetingSchedulerConstants.TAG, count + " busy times over " + dayStarts.length
+        + " days: " + encodedSize + " bytes encoded, " + serialized.size()
+        + " bytes serialized, " + 16 * count + " bytes as raw longs");
+    assertTrue(encodedSize * 5 < serialized.size());
+    assertTrue(encodedSize < 4 * count + 4 * dayStarts.length);
+  }
+
+  /**
+   * @return The midnights of {@code count} days from {@code firstDay}.
+   */
+  private long[] getDayStarts(int firstDay, int count) {
+    long[] result = new long[count];
+
+    for (int day = 0; day < count; ++day) {
+      result[day] = days.getDayStart(firstDay + day);
+    }
+    return result;
+  }
+
+  /**
+   * @return Random busy times of working hours, on the quarter hour and
+   *         sorted, of at most {@code maxPerDay} busy times a day.
+   */
+  private static TimeIntervals[] createBusyTimes(long[] dayStarts, Random random, int maxPerDay) {
+    TimeIntervals[] result = new TimeIntervals[dayStarts.length];
+
+    for (int day = 0; day < dayStarts.length; ++day) {
+      long time = dayStarts[day] + 8 * HOUR;
+
+      result[day] = new TimeIntervals();
+      for (int i = random.nextInt(maxPerDay + 1); i > 0; --i) {
+        time += random.nextInt(4) * 15 * MINUTE;
+
+        long end = time + (1 + random.nextInt(4)) * 15 * MINUTE;
+
+        result[day].add(time, end);
+        time = end;
+      }
+    }
+    return result;
+  }
+
+  private static String decode(byte[] data, long firstDay, long lastDay) {
+    TimeIntervals result = new TimeIntervals();
+
+    BusyTimesCodec.decode(data, firstDay, lastDay, result);
+    return toString(result);
+  }
+
+  private static String concat(TimeIntervals[] dayBusyTimes, int from, int to) {
+    StringBuilder result = new StringBuilder();
+
+    for (int day = from; day < to; ++day) {
+      result.append(toString(dayBusyTimes[day]));
+    }
+    return result.toString();
+  }
+
+  private static String interval(long start, long end) {
+    return start + "-" + end + " ";
+  }
+
+  private static String toString(TimeIntervals intervals) {
+    StringBuilder result = new StringBuilder();
+
+    for (int i = 0; i < intervals.size(); ++i) {
+      result.append(interval(intervals.getStart(i), intervals.getEnd(i)));
+    }
+    return result.toString();
+  }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.test.InstrumentationTestCase;
+
+import com.google.api.client.util.DateTime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tests of {@link FreeBusyFeedParser} against hand-written freebusy batch
+ * responses following the format of the Calendar API, with its time zone
+ * offsets, all day events, failed entries and time ranges, stored in the
+ * assets of the test package.
+ */
+public class FreeBusyFeedParserTest extends InstrumentationTestCase {
+
+  public void testEmptyFeed() throws IOException {
+    assertTrue(parse("freebusy_empty.xml").isEmpty());
+  }
+
+  public void testMultipleAttendees() throws IOException {
+    Map<String, TimeIntervals> entries = parse("freebusy_attendees.xml");
+
+    assertEquals(3, entries.size());
+
+    // The time range of the entry isn't a busy time.
+    TimeIntervals alice = entries.get("alice@example.com");
+
+    assertEquals(3, alice.size());
+    assertInterval(alice, 0, "2010-11-15T17:00:00.000Z", "2010-11-15T18:00:00.000Z");
+    assertInterval(alice, 1, "2010-11-15T22:30:00.000Z", "2010-11-15T23:15:00.000Z");
+    assertInterval(alice, 2, "2010-11-18T07:00:00.000Z", "2010-11-18T09:00:00.000Z");
+
+    TimeIntervals bob = entries.get("bob@example.com");
+
+    assertEquals(2, bob.size());
+    assertInterval(bob, 0, "2010-11-16T03:30:00.000Z", "2010-11-16T05:00:00.000Z");
+    // An all day event is read as the midnights UTC around it.
+    assertInterval(bob, 1, "2010-11-19T00:00:00.000Z", "2010-11-20T00:00:00.000Z");
+
+    // An attendee free all week still gets an entry.
+    assertEquals(0, entries.get("carol@example.com").size());
+  }
+
+  public void testFailedEntriesAreSkipped() throws IOException {
+    Map<String, TimeIntervals> entries = parse("freebusy_errors.xml");
+
+    assertEquals(1, entries.size());
+    assertEquals(1, entries.get("alice@example.com").size());
+    assertFalse(entries.containsKey("private@example.com"));
+    assertFalse(entries.containsKey("unknown@example.com"));
+  }
+
+  public void testTruncatedFeed() throws IOException {
+    final Map<String, TimeIntervals> entries = new LinkedHashMap<String, TimeIntervals>();
+    InputStream content = open("freebusy_truncated.xml");
+
+    try {
+      FreeBusyFeedParser.parse(content, new FreeBusyFeedParser.EntryListener() {
+        @Override
+        public void onEntry(String batchId, TimeIntervals busyTimes) {
+          entries.put(batchId, busyTimes);
+        }
+      });
+      fail("A truncated feed must not be parsed successfully");
+    } catch (IOException e) {
+      // The entries completed before the truncation have been published.
+      assertEquals(1, entries.size());
+      assertEquals(3, entries.get("alice@example.com").size());
+    } finally {
+      content.close();
+    }
+  }
+
+  public void testParseTime() {
+    String[] values = {
+        "2010-11-15T22:00:00.000Z", "2010-11-15T14:00:00.000-08:00",
+        "2010-11-16T09:00:00.000+05:30", "2010-11-16T09:00:00.000+05:45",
+        "2012-02-29T23:59:59.999Z", "1969-12-31T23:59:59.000Z"};
+
+    for (String value : values) {
+      assertEquals(value, DateTime.parseRfc3339(value).value, FreeBusyFeedParser
+          .parseTime(value));
+    }
+
+    // DateTime.parseRfc3339 rejects these fractions of a second.
+    assertEquals(DateTime.parseRfc3339("2010-11-15T22:00:00.500Z").value, FreeBusyFeedParser
+        .parseTime("2010-11-15T22:00:00.5Z"));
+    assertEquals(DateTime.parseRfc3339("2010-11-15T22:00:00.123Z").value, FreeBusyFeedParser
+        .parseTime("2010-11-15T22:00:00.123456Z"));
+
+    // DateTime.parseRfc3339 keeps the current milliseconds and time of day
+    // for these forms.
+    assertEquals(DateTime.parseRfc3339("2010-11-15T22:00:00.000Z").value, FreeBusyFeedParser
+        .parseTime("2010-11-15T22:00:00Z"));
+    assertEquals(DateTime.parseRfc3339("2010-11-19T00:00:00.000Z").value, FreeBusyFeedParser
+        .parseTime("2010-11-19"));
+  }
+
+  /**
+   * @return The busy times of the successful entries of a fixture, mapped by
+   *         batch ID in the order of the feed.
+   */
+  private Map<String, TimeIntervals> parse(String fixture) throws IOException {
+    final Map<String, TimeIntervals> result = new LinkedHashMap<String, TimeIntervals>();
+    InputStream content = open(fixture);
+
+    try {
+      FreeBusyFeedParser.parse(content, new FreeBusyFeedParser.EntryListener() {
+        @Override
+        public void onEntry(String batchId, TimeIntervals busyTimes) {
+          assertNull("Duplicate entry " + batchId, result.put(batchId, busyTimes));
+        }
+      });
+    } finally {
+      content.close();
+    }
+    return result;
+  }
+
+  private InputStream open(String fixture) throws IOException {
+    return getInstrumentation().getContext().getAssets().open("feeds/" + fixture);
+  }
+
+  private static void assertInterval(TimeIntervals intervals, int index, String start,
+      String end) {
+    assertEquals(DateTime.parseRfc3339(start).value, intervals.getStart(index));
+    assertEquals(DateTime.parseRfc3339(end).value, intervals.getEnd(index));
+  }
+
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.http.LowLevelHttpTransport;
+import com.google.api.client.util.DateTime;
+import com.google.api.client.xml.atom.AtomFeedContent;
+import com.google.api.data.calendar.v2.model.FreeBusy;
+import com.google.api.data.calendar.v2.model.FreeBusyList;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of {@link FreeBusyTimesRetriever} against a stand-in of the freebusy
+ * batch feed, installed as the low level HTTP transport. The stand-in answers
+ * every batch entry with one busy time derived from the attendee, so that the
+ * busy times can't be mixed up between attendees.
+ */
+public class FreeBusyTimesRetrieverTest extends TestCase {
+
+  private static final long MINUTE = 60 * 1000;
+
+  /** The start of the busy time of attendee 0, 2010-11-15 9:00 in UTC. */
+  private static final long BUSY_START = 1289811600000L;
+
+  private final FeedServer server = new FeedServer();
+
+  private LowLevelHttpTransport previousTransport;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    previousTransport = HttpTransport.useLowLevelHttpTransport();
+    HttpTransport.setLowLevelHttpTransport(server);
+    CalendarServiceManager.getInstance().setAuthToken("test-token");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    HttpTransport.setLowLevelHttpTransport(previousTransport);
+    super.tearDown();
+  }
+
+  public void testBatching() {
+    final Map<Attendee, TimeIntervals> published =
+        new ConcurrentHashMap<Attendee, TimeIntervals>();
+    List<Attendee> attendees = createAttendees(60);
+    BusyTimesResult result = new FreeBusyTimesRetriever(25, 4).getBusyIntervals(attendees,
+        new Date(BUSY_START), 7, null, new BusyTimesListener() {
+          @Override
+          public void onBusyTimes(Attendee attendee, TimeIntervals busyTimes) {
+            assertNull("Published twice: " + attendee.email, published.put(attendee, busyTimes));
+          }
+        });
+    List<Integer> batchSizes = new ArrayList<Integer>(server.batchSizes);
+
+    Collections.sort(batchSizes);
+    assertEquals("[10, 25, 25]", batchSizes.toString());
+    assertFresh(attendees, result);
+    assertEquals(attendees.size(), published.size());
+  }
+
+  public void testConcurrentRequestsAreBounded() {
+    List<Attendee> attendees = createAttendees(50);
+
+    server.latency = 200;
+    assertFresh(attendees, new FreeBusyTimesRetriever(5, 3).getBusyIntervals(attendees,
+        new Date(BUSY_START), 7, null));
+    assertEquals(10, server.requestCount.get());
+    assertEquals(3, server.maxActiveRequests);
+  }
+
+  public void testRetry() {
+    List<Attendee> attendees = createAttendees(30);
+
+    server.failures.set(2);
+    assertFresh(attendees, new FreeBusyTimesRetriever(10, 1, 20 * 1000, 20 * 1000, 2)
+        .getBusyIntervals(attendees, new Date(BUSY_START), 7, null));
+    assertEquals(5, server.requestCount.get());
+  }
+
+  public void testFailedChunkOnlyLosesItsAttendees() {
+    List<Attendee> attendees = createAttendees(30);
+
+    // The first chunk fails and isn't retried.
+    server.failures.set(1);
+
+    BusyTimesResult result = new FreeBusyTimesRetriever(10, 1, 20 * 1000, 20 * 1000, 0)
+        .getBusyIntervals(attendees, new Date(BUSY_START), 7, null);
+
+    for (int i = 0; i < attendees.size(); ++i) {
+      assertEquals(i < 10 ? BusyTimesResult.Status.FAILED : BusyTimesResult.Status.FRESH, result
+          .getStatus(attendees.get(i)));
+    }
+    assertFresh(attendees.subList(10, 30), result);
+  }
+
+  public void testHedging() {
+    List<Attendee> attendees = createAttendees(10);
+    long start = System.currentTimeMillis();
+
+    // The first request stalls, so its duplicate answers first.
+    server.stalls.set(1);
+    server.stall = 5000;
+    assertFresh(attendees, new FreeBusyTimesRetriever(10, 2, 20 * 1000, 200, 0)
+        .getBusyIntervals(attendees, new Date(BUSY_START), 7, null));
+    assertTrue(System.currentTimeMillis() - start < 2000);
+    assertEquals(2, server.requestCount.get());
+  }
+
+  public void testDeadline() {
+    List<Attendee> attendees = createAttendees(10);
+    long start = System.currentTimeMillis();
+
+    // No thread is left for a duplicate, so the chunk is given up on.
+    server.stalls.set(1);
+    server.stall = 5000;
+
+    BusyTimesResult result = new FreeBusyTimesRetriever(10, 1, 500, 200, 0).getBusyIntervals(
+        attendees, new Date(BUSY_START), 7, null);
+
+    assertTrue(System.currentTimeMillis() - start < 2000);
+    for (Attendee attendee : attendees) {
+      assertEquals(BusyTimesResult.Status.FAILED, result.getStatus(attendee));
+    }
+  }
+
+  /**
+   * Compare the time taken by one batch request of every attendee to the time
+   * taken by concurrent chunks, the stand-in taking longer to answer larger
+   * batch requests like the Calendar API.
+   */
+  @LargeTest
+  public void testChunksAreFasterThanOneBatch() {
+    server.latency = 100;
+    server.latencyPerAttendee = 5;
+    for (int count : new int[] { 50, 100, 200 }) {
+      List<Attendee> attendees = createAttendees(count);
+      long singleTime = time(new FreeBusyTimesRetriever(Integer.MAX_VALUE, 1), attendees);
+      long chunkedTime = time(new FreeBusyTimesRetriever(), attendees);
+
+      Log.i(MeetingSchedulerConstants.TAG, count + " attendees: " + singleTime
+          + " ms in one batch, " + chunkedTime + " ms in chunks");
+      assertTrue(chunkedTime < singleTime);
+    }
+  }
+
+  private long time(FreeBusyTimesRetriever retriever, List<Attendee> attendees) {
+    long start = System.currentTimeMillis();
+
+    assertFresh(attendees, retriever.getBusyIntervals(attendees, new Date(BUSY_START), 7, null));
+    return System.currentTimeMillis() - start;
+  }
+
+  private static List<Attendee> createAttendees(int count) {
+    List<Attendee> result = new ArrayList<Attendee>();
+
+    for (int i = 0; i < count; ++i) {
+      result.add(new Attendee("Attendee " + i, getEmail(i), null));
+    }
+    return result;
+  }
+
+  private static String getEmail(int index) {
+    return "attendee" + index + "@example.com";
+  }
+
+  /**
+   * @return The start of the busy time the stand-in returns for an attendee.
+   */
+  private static long getBusyStart(String email) {
+    return BUSY_START + Integer.parseInt(email.substring(8, email.indexOf('@'))) * MINUTE;
+  }
+
+  private static String formatTime(long time) {
+    return new DateTime(time, 0).toStringRfc3339();
+  }
+
+  private static void assertFresh(List<Attendee> attendees, BusyTimesResult result) {
+    for (Attendee attendee : attendees) {
+      TimeIntervals busyTimes = result.get(attendee);
+
+      assertEquals(attendee.email, BusyTimesResult.Status.FRESH, result.getStatus(attendee));
+      assertEquals(1, busyTimes.size());
+      assertEquals(getBusyStart(attendee.email), busyTimes.getStart(0));
+      assertEquals(getBusyStart(attendee.email) + 30 * MINUTE, busyTimes.getEnd(0));
+    }
+  }
+
+  /**
+   * Stand-in of the Calendar API answering the freebusy batch requests and
+   * the settings request made for the time zone.
+   */
+  private static class FeedServer extends LowLevelHttpTransport {
+
+    /** The number of batch requests received. */
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    /** The number of attendees of every batch request received. */
+    private final List<Integer> batchSizes = Collections
+        .synchronizedList(new ArrayList<Integer>());
+
+    /** The number of next batch requests to fail with a 503. */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /** The number of next batch requests to stall. */
+    private final AtomicInteger stalls = new AtomicInteger();
+
+    /** The time taken by a stalled batch request, in milliseconds. */
+    private volatile long stall;
+
+    /** The time taken by a batch request, in milliseconds. */
+    private volatile long latency;
+
+    /** The time taken for each attendee of a batch request, in milliseconds. */
+    private volatile long latencyPerAttendee;
+
+    private int activeRequests;
+    private int maxActiveRequests;
+
+    @Override
+    public LowLevelHttpRequest buildGetRequest(String url) {
+      return new Request(false);
+    }
+
+    @Override
+    public LowLevelHttpRequest buildPostRequest(String url) {
+      return new Request(true);
+    }
+
+    @Override
+    public LowLevelHttpRequest buildDeleteRequest(String url) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public LowLevelHttpRequest buildPutRequest(String url) {
+      throw new UnsupportedOperationException();
+    }
+
+    private synchronized void onRequestStart() {
+      maxActiveRequests = Math.max(maxActiveRequests, ++activeRequests);
+    }
+
+    private synchronized void onRequestEnd() {
+      --activeRequests;
+    }
+
+    private class Request extends LowLevelHttpRequest {
+
+      private final boolean batch;
+      private HttpContent content;
+
+      public Request(boolean batch) {
+        this.batch = batch;
+      }
+
+      @Override
+      public void addHeader(String name, String value) {
+      }
+
+      @Override
+      public void setContent(HttpContent content) {
+        this.content = content;
+      }
+
+      @Override
+      public LowLevelHttpResponse execute() throws IOException {
+        if (!batch)
+          return new Response(200, "<feed xmlns='http://www.w3.org/2005/Atom' "
+              + "xmlns:gCal='http://schemas.google.com/gCal/2005'><entry>"
+              + "<gCal:settingsProperty name='timezone' value='America/Los_Angeles'/>"
+              + "</entry></feed>");
+
+        List<FreeBusy> entries = ((FreeBusyList) ((AtomFeedContent) content).feed).entries;
+
+        requestCount.incrementAndGet();
+        batchSizes.add(entries.size());
+        onRequestStart();
+        try {
+          Thread.sleep(stalls.getAndDecrement() > 0 ? stall : latency + latencyPerAttendee
+              * entries.size());
+          if (failures.getAndDecrement() > 0)
+            return new Response(503, "Service Unavailable");
+          return new Response(200, createFeed(entries));
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted");
+        } finally {
+          onRequestEnd();
+        }
+      }
+
+      private String createFeed(List<FreeBusy> entries) {
+        StringBuilder result = new StringBuilder(
+            "<feed xmlns='http://www.w3.org/2005/Atom' "
+                + "xmlns:batch='http://schemas.google.com/gdata/batch' "
+                + "xmlns:gCal='http://schemas.google.com/gCal/2005' "
+                + "xmlns:gd='http://schemas.google.com/g/2005'>");
+
+        for (FreeBusy entry : entries) {
+          long start = getBusyStart(entry.batchId);
+
+          result.append("<entry><gCal:busy><gd:when startTime='")
+              .append(formatTime(start)).append("' endTime='")
+              .append(formatTime(start + 30 * MINUTE))
+              .append("'/></gCal:busy><batch:id>").append(entry.batchId)
+              .append("</batch:id><batch:status code='200' reason='Success'/></entry>");
+        }
+        return result.append("</feed>").toString();
+      }
+
+    }
+
+    private static class Response extends LowLevelHttpResponse {
+
+      private final int statusCode;
+      private final byte[] content;
+
+      public Response(int statusCode, String content) throws IOException {
+        this.statusCode = statusCode;
+        this.content = content.getBytes("UTF-8");
+      }
+
+      @Override
+      public InputStream getContent() {
+        return new ByteArrayInputStream(content);
+      }
+
+      @Override
+      public String getContentEncoding() {
+        return null;
+      }
+
+      @Override
+      public long getContentLength() {
+        return content.length;
+      }
+
+      @Override
+      public String getContentType() {
+        return statusCode == 200 ? "application/atom+xml; charset=UTF-8" : "text/plain";
+      }
+
+      @Override
+      public String getStatusLine() {
+        return "HTTP/1.1 " + statusCode;
+      }
+
+      @Override
+      public int getStatusCode() {
+        return statusCode;
+      }
+
+      @Override
+      public String getReasonPhrase() {
+        return null;
+      }
+
+      @Override
+      public int getHeaderCount() {
+        return 0;
+      }
+
+      @Override
+      public String getHeaderName(int index) {
+        return null;
+      }
+
+      @Override
+      public String getHeaderValue(int index) {
+        return null;
+      }
+
+    }
+
+  }
+
+}
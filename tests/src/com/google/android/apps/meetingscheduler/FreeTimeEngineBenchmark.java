@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.meetingscheduler;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.data.calendar.v2.model.Busy;
+import com.google.api.data.gdata.v2.model.When;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Benchmark of the sorting and coalescing of busy times by
+ * {@link FreeTimeEngine#addBusyTimes(TimeIntervals)} on dense synthetic
+ * calendars, against the merge of a list of {@link Busy} the engine used to
+ * run, which removed each overlapping busy time from the list. The timings
+ * are logged to compare runs, not asserted.
+ */
+@LargeTest
+public class FreeTimeEngineBenchmark extends TestCase {
+
+  private static final long MINUTE = 60 * 1000;
+
+  /** 2010-11-15 00:00 UTC. */
+  private static final long START = 1289779200000L;
+
+  private static final int[] SIZES = {10000, 20000, 40000, 80000};
+
+  /** The number of busy times added in each run, whatever the size. */
+  private static final int TOTAL = 640000;
+
+  /** The number of runs of each size, of which the fastest is kept. */
+  private static final int RUNS = 5;
+
+  public void testAddBusyTimes() {
+    // Run every size once before timing so that no size pays for the
+    // compilation of the sort and the coalescing.
+    for (int size : SIZES) {
+      timeAddBusyTimes(createCalendar(size, new Random(size)));
+    }
+
+    long[] times = new long[SIZES.length];
+
+    for (int i = 0; i < SIZES.length; ++i) {
+      long[][] calendar = createCalendar(SIZES[i], new Random(SIZES[i]));
+
+      times[i] = Long.MAX_VALUE;
+      for (int run = 0; run < RUNS; ++run) {
+        times[i] = Math.min(times[i], timeAddBusyTimes(calendar));
+      }
+      Log.i(MeetingSchedulerConstants.TAG, SIZES[i] + " busy times: " + format(times[i]
+          * SIZES[i] / TOTAL) + " to sort and coalesce");
+    }
+
+    // Every size adds the same number of busy times in total, so linear work
+    // shows as about the same time for every size and n log n work as a slow
+    // growth. The times are only logged, as wall-clock times on a device are
+    // too noisy to fail a build on.
+    for (int i = 1; i < SIZES.length; ++i) {
+      Log.i(MeetingSchedulerConstants.TAG, SIZES[i] + " busy times: " + times[i] * 100
+          / times[0] + "% of the time per busy time of " + SIZES[0] + " busy times");
+    }
+  }
+
+  public void testAddBusyTimesAgainstListMerge() {
+    for (int size : SIZES) {
+      long[][] calendar = createCalendar(size, new Random(size));
+      long addTime = Long.MAX_VALUE;
+      long mergeTime = Long.MAX_VALUE;
+      int coalesced = 0;
+      int merged = 0;
+
+      for (int run = 0; run < RUNS; ++run) {
+        FreeTimeEngine engine = new FreeTimeEngine(TimeZone.getTimeZone("UTC"));
+        TimeIntervals busyTimes = new TimeIntervals(size);
+        List<Busy> busyList = createBusyList(calendar);
+
+        busyTimes.addAll(calendar[0], calendar[1], size);
+
+        long start = System.nanoTime();
+
+        engine.addBusyTimes(busyTimes);
+        addTime = Math.min(addTime, System.nanoTime() - start);
+        start = System.nanoTime();
+        merge(busyList);
+        mergeTime = Math.min(mergeTime, System.nanoTime() - start);
+        coalesced = coalesce(busyTimes).size();
+        merged = busyList.size();
+      }
+
+      Log.i(MeetingSchedulerConstants.TAG, size + " busy times: " + format(addTime)
+          + " to sort and coalesce, " + format(mergeTime) + " to merge as a list of Busy");
+      // Both do the same work.
+      assertEquals(merged, coalesced);
+    }
+  }
+
+  /**
+   * @return The time to add the shuffled busy times of {@code calendar} to
+   *         engines until {@link #TOTAL} busy times have been added, in
+   *         nanoseconds.
+   */
+  private static long timeAddBusyTimes(long[][] calendar) {
+    int size = calendar[0].length;
+    long result = 0;
+
+    for (int added = 0; added < TOTAL; added += size) {
+      FreeTimeEngine engine = new FreeTimeEngine(TimeZone.getTimeZone("UTC"));
+      TimeIntervals busyTimes = new TimeIntervals(size);
+
+      busyTimes.addAll(calendar[0], calendar[1], size);
+
+      long start = System.nanoTime();
+
+      engine.addBusyTimes(busyTimes);
+      result += System.nanoTime() - start;
+    }
+    return result;
+  }
+
+  /**
+   * Create a dense calendar of {@code size} busy times of 15 minutes to 2
+   * hours, starting every 0 to 90 minutes so that about half of them overlap
+   * the previous one. The busy times are shuffled in runs of 8, as a feed
+   * merging several calendars would return them.
+   *
+   * @return The start times and the end times of the busy times.
+   */
+  private static long[][] createCalendar(int size, Random random) {
+    long[] starts = new long[size];
+    long[] ends = new long[size];
+    long time = START;
+
+    for (int i = 0; i < size; ++i) {
+      time += random.nextInt(7) * 15 * MINUTE;
+      starts[i] = time;
+      ends[i] = time + (1 + random.nextInt(8)) * 15 * MINUTE;
+    }
+    for (int i = 0; i < size; ++i) {
+      int j = i - i % 8 + random.nextInt(Math.min(8, size - i + i % 8));
+      long start = starts[i];
+      long end = ends[i];
+
+      starts[i] = starts[j];
+      ends[i] = ends[j];
+      starts[j] = start;
+      ends[j] = end;
+    }
+    return new long[][] {starts, ends};
+  }
+
+  private static List<Busy> createBusyList(long[][] calendar) {
+    List<Busy> result = new ArrayList<Busy>(calendar[0].length);
+
+    for (int i = 0; i < calendar[0].length; ++i) {
+      Busy busy = new Busy();
+
+      busy.when = new When();
+      busy.when.startTime = new DateTime(calendar[0][i]);
+      busy.when.endTime = new DateTime(calendar[1][i]);
+      result.add(busy);
+    }
+    return result;
+  }
+
+  /**
+   * Sort and merge a list of {@link Busy} the way the engine used to, removing
+   * each busy time overlapping the current one from the list. The comparison
+   * doesn't go through {@link DateUtils#compareDateTime(DateTime, DateTime)},
+   * whose int result overflows on busy times more than 24 days apart.
+   */
+  private static void merge(List<Busy> busyTimes) {
+    Collections.sort(busyTimes, new Comparator<Busy>() {
+      @Override
+      public int compare(Busy lhs, Busy rhs) {
+        if (lhs.when.startTime.value != rhs.when.startTime.value)
+          return lhs.when.startTime.value < rhs.when.startTime.value ? -1 : 1;
+        if (lhs.when.endTime.value != rhs.when.endTime.value)
+          return lhs.when.endTime.value < rhs.when.endTime.value ? -1 : 1;
+        return 0;
+      }
+    });
+    for (int i = 0; i < busyTimes.size(); ++i) {
+      Busy current = busyTimes.get(i);
+
+      for (int j = i + 1; j < busyTimes.size();) {
+        Busy next = busyTimes.get(j);
+
+        if (current.when.endTime.value >= next.when.startTime.value) {
+          if (current.when.endTime.value < next.when.endTime.value)
+            current.when.endTime = next.when.endTime;
+          busyTimes.remove(j);
+        } else {
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The busy times sorted and coalesced, as the engine keeps them.
+   */
+  private static TimeIntervals coalesce(TimeIntervals busyTimes) {
+    TimeIntervals sorted = busyTimes.copy();
+    TimeIntervals result = new TimeIntervals(sorted.size());
+
+    sorted.sort();
+    sorted.coalesce(result);
+    return result;
+  }
+
+  private static String format(long nanos) {
+    return (nanos / 1000) / 1000.0 + " ms";
+  }
+
+}